@@ -0,0 +1,8 @@
+// Finds the end of a run of blanks in a char array
+public interface BlankFinder{
+
+   // The index of the first char in text[from .. to - 1] that is neither
+   // a space nor a tab, or to if there is none
+   public int skipBlanks(char[] text, int from, int to);
+
+}
@@ -0,0 +1,29 @@
+// Sink keeping everything in memory until it is copied to another sink,
+// e.g. to emit the output of files compiled in parallel in input order.
+public class BufferSink extends Object implements OutputSink{
+
+   private StringBuilder text;
+
+   public BufferSink(){
+      text = new StringBuilder();
+   }
+
+   public void print(String s){
+      text.append(s);
+   }
+
+   public void print(char[] chars, int offset, int length){
+      text.append(chars, offset, length);
+   }
+
+   public void flush(){}
+
+   public void writeTo(OutputSink sink){
+      sink.print(text.toString());
+   }
+
+   public void clear(){
+      text.setLength(0);
+   }
+
+}
@@ -1,70 +1,282 @@
-import java.awt.*;
-import javax.swing.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 public class Chario extends Object{
 
    public static final char EL = '\n';
    public static final char EF = (char) 26;
    public static final char TAB = '\t';
-   private JTextArea input, output;
-   private String sourceProgram, line;
-   private int totalErrors, column, lineNumber;
-   private boolean terminalBased;
-
-   // Constructor for use with GUI-based app
-   public Chario(JTextArea sourceArea, JTextArea utilityArea){
-      terminalBased = false;
-      input = sourceArea;
-      output = utilityArea;
-      reset();
+   private static final char[] SPACES = "                                ".toCharArray();
+   // The Vector API version of the loop in skipSpaces(), if the
+   // jdk.incubator.vector module is present, else null. Below
+   // VECTOR_THRESHOLD chars the scalar loop is faster.
+   private static final BlankFinder VECTOR_BLANKS = loadVectorBlanks();
+   private static final int VECTOR_THRESHOLD = 16;
+   // see output(); null until the first output without setOutput()
+   private OutputSink sink;
+   // false for the diagnostics only mode, which does not echo source lines
+   private boolean listing;
+   // The whole source program lives in one buffer; the current line is the
+   // slice [lineStart, lineStart + lineLength), including its trailing EL.
+   private char[] buffer;
+   private int bufferLength, lineStart, lineLength;
+   // where the source starts in buffer: 0, except for a chunk of another
+   // Chario's source
+   private int bufferStart;
+   private int column, lineNumber;
+   private Diagnostics diagnostics;
+   private boolean skipLineFeed;
+   // Input for streaming mode, where the buffer is only a window on the source
+   private ReadableByteChannel channel;
+   private ByteBuffer bytes;
+   private CharsetDecoder decoder;
+   private boolean endOfInput;
+   // Replay of a source scanned in advance into a TokenBuffer, see
+   // startReplay(). The errors found while scanning are in scanned.
+   private boolean replaying, holding, heldListing;
+   private Diagnostics scanned;
+   private int replayed, errorLine, errorColumn, echoLine, echoStart;
+   // lines already echoed when the listing was held
+   private int heldLines;
+
+   // VectorBlankFinder is only compiled and linked with the incubator
+   // module (see core/pom.xml and "java --add-modules jdk.incubator.vector")
+   private static BlankFinder loadVectorBlanks(){
+      try{
+         return (BlankFinder) Class.forName("VectorBlankFinder").getDeclaredConstructor().newInstance();
+      }
+      catch(Exception | LinkageError e){
+         return null;
+      }
+   }
+
+   // Constructor for front ends that supply the source themselves,
+   // see SwingChario. reset() must be called before reading.
+   protected Chario(OutputSink out){
+      sink = out;
+      diagnostics = new Diagnostics();
+      listing = true;
+      setSource(new char[0], 0);
    }
 
    // Constructor for use with terminal-based app
    public Chario(FileInputStream stream){
-      terminalBased = true;
-      sourceProgram = "";
+      diagnostics = new Diagnostics();
+      listing = true;
+      setSource(new char[0], 0);
       readFile(stream);
       reset();
    }
 
+   // Constructor for a source program that is already in memory
+   public Chario(String source){
+      diagnostics = new Diagnostics();
+      listing = true;
+      char[] text = source.toCharArray();
+      setSource(text, text.length);
+      reset();
+   }
+
+   // Constructor for use with terminal-based app in streaming mode.
+   // The source is read through a window of about windowSize chars,
+   // so memory use does not depend on the size of the input.
+   public Chario(ReadableByteChannel source, int windowSize){
+      diagnostics = new Diagnostics();
+      listing = true;
+      channel = source;
+      bytes = ByteBuffer.allocate(windowSize);
+      decoder = newDecoder();
+      buffer = new char[windowSize];
+      reset();
+   }
+
+   // Constructor for the whole lines source.getBuffer()[start, end) of
+   // a source held in memory as a whole, sharing its buffer, e.g. for
+   // ParallelLexer. Positions are those in the buffer, but lines are
+   // counted from start. Nothing is printed.
+   public Chario(Chario source, int start, int end){
+      sink = new NullSink();
+      diagnostics = new Diagnostics();
+      listing = false;
+      buffer = source.buffer;
+      bufferStart = start;
+      bufferLength = end;
+      reset();
+   }
+
    public void reset(){
-      if (! terminalBased){
-         sourceProgram = input.getText();
-         output.setText("");
+      if (channel != null){
+         // A stream can only be read again if it supports seeking.
+         try{
+            if (channel instanceof SeekableByteChannel)
+               ((SeekableByteChannel) channel).position(0);
+         }
+         catch(IOException e){
+            System.out.println("Error in file input" + e.toString());
+         }
+         bufferLength = 0;
+         skipLineFeed = false;
+         endOfInput = false;
+         bytes.clear();
+         decoder.reset();
+      }
+      reload();
+      diagnostics.reset();
+      replaying = false;
+      scanned = null;
+      if (holding){
+         listing = heldListing;
+         holding = false;
       }
-      totalErrors = 0;
       lineNumber = 0;
       column = 0;
-      line = "";
+      lineStart = bufferStart;
+      lineLength = 0;
    }      
 
+   // Called by reset() before reading starts over; a front end whose
+   // source can change between runs installs the new text here.
+   protected void reload(){}
+
+   // Redirects all further output, e.g. to a file or a NullSink
+   public void setOutput(OutputSink s){
+      sink = s;
+   }
+
+   // The sink for all output, by default one for System.out, made only
+   // when it is first needed: a TerminalApp sets its own for every file
+   private OutputSink output(){
+      if (sink == null)
+         sink = new WriterSink(System.out);
+      return sink;
+   }
+
+   // With listing off, source lines are not echoed and only
+   // diagnostics and reports are written.
+   public void setListing(boolean on){
+      listing = on;
+   }
+
+   public void flush(){
+      output().flush();
+   }
+
    public void println(String s){
-      if (terminalBased)
-         System.out.println(s);
-      else
-         output.append(s + "\n");
+      output().print(s);
+      output().print("\n");
    }
    
-  private String makeSpaces(int number){
-      String s = "";
-      for (int i = 1; i <= number; i++)
-          s += " ";
-      return s;
-   }
-
-   public void putError(String message){
-      totalErrors++;
-      String spaces = makeSpaces(column);
-      if (terminalBased)
-         System.out.println(spaces + "ERROR > " + message);
-      else{
-         output.append(spaces);
+   private void printSpaces(int number){
+      while (number > 0){
+         int n = Math.min(number, SPACES.length);
+         output().print(SPACES, 0, n);
+         number -= n;
+      }
+   }
+
+   // Records an error of the given Diagnostics category at the current
+   // position. With the listing on, it is also printed right away under
+   // the current line; otherwise it is only printed by reportErrors().
+   public void putError(int category, String message){
+      int column = this.column;
+      if (replaying)
+         column = errorColumn;
+      diagnostics.add(replaying ? errorLine : lineNumber, column, category, message);
+      // lexical errors in replay were counted when they were found
+      if (CompileStats.ENABLED && ! (replaying && category == Diagnostics.LEXICAL))
+         CompileStats.addError(category);
+      if (listing){
+         printSpaces(column);
          println("ERROR > " + message);
       }
    }
 
+   // Holds the listing back while the whole source is scanned into a
+   // TokenBuffer; startReplay() lets it out again.
+   public void holdListing(){
+      if (! holding){
+         heldListing = listing;
+         heldLines = listing ? lineNumber : 0;
+         listing = false;
+         holding = true;
+      }
+   }
+
+   // Starts (or restarts) the replay of a source that was scanned in
+   // advance: the listing and the errors found while scanning are written
+   // as replayTo() reaches them, and new errors are placed where it says,
+   // so the output is the same as when scanning and parsing interleave.
+   // errors are those found while scanning, see TokenBuffer.getDiagnostics().
+   // Only for a source held in memory as a whole.
+   public void startReplay(Diagnostics errors){
+      if (! replaying){
+         diagnostics = new Diagnostics();
+         replaying = true;
+      }
+      scanned = errors;
+      diagnostics.reset();
+      replayed = 0;
+      echoLine = 0;
+      echoStart = 0;
+      errorLine = 0;
+      errorColumn = 0;
+      // the first run does not echo again what was echoed before holding
+      if (holding){
+         boolean on = heldListing;
+         listing = false;
+         echoTo(heldLines);
+         listing = on;
+         holding = false;
+      }
+   }
+
+   // Moves the replay up to a token: the listing up to line, the first
+   // errors of the errors found while scanning, and the position of further
+   // errors to line and column.
+   public void replayTo(int line, int column, int errors){
+      while (replayed < errors){
+         int i = replayed++;
+         echoTo(scanned.line(i));
+         errorLine = scanned.line(i);
+         errorColumn = scanned.column(i);
+         putError(scanned.code(i), scanned.message(i));
+      }
+      echoTo(line);
+      errorLine = line;
+      errorColumn = column;
+   }
+
+   // Echoes the source lines up to line in replay, as nextLine() does
+   private void echoTo(int line){
+      while (echoLine < line && echoStart < bufferLength){
+         int end = echoStart;
+         while (buffer[end] != EL)
+            end++;
+         echoLine++;
+         if (listing){
+            output().print(echoLine + " > ");
+            output().print(buffer, echoStart, end + 1 - echoStart);
+         }
+         echoStart = end + 1;
+      }
+   }
+
+   public Diagnostics getDiagnostics(){
+      return diagnostics;
+   }
+
    public void reportErrors(){
+      int totalErrors = diagnostics.size();
+      if (! listing)
+         diagnostics.printText(output());
       println("\nCompilation complete.");
       if (totalErrors == 0)
          println("No errors reported.");
@@ -72,115 +284,241 @@ public class Chario extends Object{
          println("1 error reported.");
       else
          println(totalErrors + " errors reported.");
+      flush();
    }
 
    public char getChar(){
       char ch;
-      if (column >= line.length())
+      if (column >= lineLength)
          nextLine();
-      ch = line.charAt(column);
+      if (lineStart < bufferLength)
+         ch = buffer[lineStart + column];
+      else
+         ch = EF;
       column++;
       return ch;
    }
 
+   // The char getChar() would return next, if it is on the current line,
+   // else EL. Nothing is consumed.
+   public char peekChar(){
+      int next = lineStart + column;
+      if (column < lineLength && next < bufferLength)
+         return buffer[next];
+      return EL;
+   }
+
+   // Skips the spaces and tabs that follow the char the last getChar()
+   // returned and returns the first other char, just as calling getChar()
+   // until then would. Only the current line is searched, which always ends
+   // with EL, so the listing is not affected.
+   public char skipSpaces(){
+      if (column >= lineLength || lineStart >= bufferLength)
+         return getChar();
+      int from = lineStart + column;
+      int end = lineStart + lineLength;
+      int next = from;
+      if (VECTOR_BLANKS != null && end - from >= VECTOR_THRESHOLD)
+         next = VECTOR_BLANKS.skipBlanks(buffer, from, end);
+      else
+         while (next < end && (buffer[next] == ' ' || buffer[next] == TAB))
+            next++;
+      column = next - lineStart + 1;
+      return buffer[next];
+   }
+
+   // Skips the rest of the current line, e.g. a comment, and returns
+   // the EL that ends it.
+   public char skipLine(){
+      if (column >= lineLength || lineStart >= bufferLength)
+         return getChar();
+      column = lineLength;
+      return buffer[lineStart + lineLength - 1];
+   }
+
+   // The buffer and index of the char the last getChar() returned, so that
+   // the text of a token can be used without copying. The buffer may be
+   // moved or replaced when getChar() starts a new line.
+   public char[] getBuffer(){
+      return buffer;
+   }
+
+   // Where the source ends in getBuffer(), for a source in memory
+   public int getBufferLength(){
+      return bufferLength;
+   }
+
+   public int getPosition(){
+      return lineStart + column - 1;
+   }
+
+   // Line and column (both from 1) of the char the last getChar() returned
+   public int getLineNumber(){
+      return lineNumber;
+   }
+
+   public int getColumn(){
+      return column;
+   }
+
    private void nextLine(){
+      lineStart += lineLength;
       column = 0;
-      line = getLine();
-      if (line.charAt(0) != EF){
-         lineNumber++;
-         if (terminalBased)
-            System.out.print(lineNumber + " > " + line);
-         else{
-            output.append(lineNumber + " > ");
-            output.append(line);
-         }
+      int last = lineStart;
+      while (true){
+         while (last < bufferLength && buffer[last] != EL)
+            last++;
+         if (last < bufferLength)
+            break;
+         // fill() moves the current line to the front of the window
+         last -= lineStart;
+         if (! fill())
+            break;
+      }
+      if (lineStart >= bufferLength){
+         // Past the end, every further line consists of EF alone.
+         lineStart = bufferLength;
+         lineLength = 1;
+         return;
+      }
+      lineLength = last - lineStart + 1;
+      lineNumber++;
+      if (CompileStats.ENABLED)
+         CompileStats.addLine();
+      if (listing){
+         output().print(lineNumber + " > ");
+         output().print(buffer, lineStart, lineLength);
       }
    }
 
-   private String getLine(){
-      String ln;
-      int first, last;
-      if (sourceProgram.equals(""))
-         ln = "" + EF;
-      else{
-         first = sourceProgram.indexOf(EL);
-         last = sourceProgram.length();
-         if (first == -1){
-            ln = sourceProgram + EL;
-            sourceProgram = "";
-         }
-         else{
-            ln = sourceProgram.substring(0, first + 1);
-            sourceProgram = sourceProgram.substring(first + 1, last);
+   // Installs text as the source buffer, which then holds the whole program.
+   protected void setSource(char[] text, int length){
+      buffer = text;
+      bufferLength = 0;
+      skipLineFeed = false;
+      appendSource(0, length);
+      endSource();
+   }
+
+   // Adds the length chars at buffer[from] to the source. "\r\n" and lone '\r'
+   // line ends are converted to EL in place, as BufferedReader.readLine() did.
+   // A "\r\n" pair may be split across two calls.
+   private void appendSource(int from, int length){
+      int end = from + length;
+      for (; from < end; from++){
+         char ch = buffer[from];
+         if (ch == EL && skipLineFeed){
+            skipLineFeed = false;
+            continue;
          }
+         skipLineFeed = ch == '\r';
+         if (skipLineFeed)
+            ch = EL;
+         buffer[bufferLength++] = ch;
+      }
+   }
+
+   // Makes sure the last line of the source ends with EL.
+   private void endSource(){
+      if (bufferLength > 0 && buffer[bufferLength - 1] != EL){
+         if (bufferLength == buffer.length)
+            buffer = Arrays.copyOf(buffer, bufferLength + 1);
+         buffer[bufferLength++] = EL;
       }
-      return ln;
    }
 
-   public void openFile(){
+   // Reads more of the channel into the window in streaming mode.
+   // Lines before the current one are discarded first; the window only
+   // grows when a single line does not fit into it.
+   // Returns false if there is nothing left to read.
+   private boolean fill(){
+      if (channel == null || endOfInput)
+         return false;
+      if (lineStart > 0){
+         bufferLength -= lineStart;
+         System.arraycopy(buffer, lineStart, buffer, 0, bufferLength);
+         lineStart = 0;
+      }
+      if (buffer.length - bufferLength < 2)
+         buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      CharBuffer chars = CharBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength);
       try{
-         FileDialog fileDialog = new FileDialog(new Frame(), "Input file", FileDialog.LOAD);
-         fileDialog.setSize(450, 300);
-         fileDialog.setVisible(true);
-         String fileName = fileDialog.getFile();
-         String dirName = fileDialog.getDirectory();
-         // Check for cancellation.
-         if (fileName != null && dirName != null){
-            File file = new File(dirName, fileName);
-            FileInputStream inputStream = new FileInputStream(file);
-            readFile(inputStream);
-            inputStream.close();
+         while (chars.position() == bufferLength && ! endOfInput){
+            int read = channel.read(bytes);
+            boolean last = read == -1;
+            if (CompileStats.ENABLED && read > 0)
+               CompileStats.addBytes(read);
+            bytes.flip();
+            CoderResult result = decode(decoder, bytes, chars, last);
+            if (last && ! result.isOverflow())
+               result = decoder.flush(chars);
+            // On overflow the rest is decoded by the next call.
+            endOfInput = last && ! result.isOverflow();
+            bytes.compact();
          }
       }
       catch(IOException e){
-         System.out.println("Error in opening input file" + e.toString());
+         System.out.println("Error in file input" + e.toString());
+         endOfInput = true;
       }
+      appendSource(bufferLength, chars.position() - bufferLength);
+      if (endOfInput)
+         endSource();
+      return true;
    }
 
-   private void readFile(FileInputStream stream){
+   protected void readFile(FileInputStream stream){
       try{
-         BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-         if (! terminalBased)
-            input.setText("");
-         String data = reader.readLine();
-         while (data != null){
-            if (terminalBased)
-               sourceProgram += data + "\n";
-            else
-               input.append(data + "\n");
-            data = reader.readLine();
-         }
+         ByteBuffer data = ByteBuffer.wrap(stream.readAllBytes());
+         if (CompileStats.ENABLED)
+            CompileStats.addBytes(data.remaining());
+         CharsetDecoder fileDecoder = newDecoder();
+         char[] text = new char[(int) (data.remaining() * fileDecoder.maxCharsPerByte()) + 1];
+         CharBuffer chars = CharBuffer.wrap(text);
+         decode(fileDecoder, data, chars, true);
+         fileDecoder.flush(chars);
+         setSource(text, chars.position());
       }
       catch(IOException e){
          System.out.println("Error in file input" + e.toString());
       }
    }
 
-   public void saveFile(JTextArea input){
-      try{            
-         FileDialog fileDialog = new FileDialog(new Frame(), "Output file", FileDialog.SAVE);
-         fileDialog.setSize(100, 100);
-         fileDialog.setVisible(true);
-         String dirName = fileDialog.getDirectory();
-         String fileName = fileDialog.getFile();
-         // Check for cancellation.
-         if (dirName != null && fileName != null){
-            File file = new File(dirName, fileName);
-            FileOutputStream outputStream = new FileOutputStream(file);
-            writeFile(outputStream, input);
-            outputStream.close();
-         }
-      }
-      catch(IOException e){
-         System.out.println("Error opening file: " + e.toString());
+   private static CharsetDecoder newDecoder(){
+      return Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+   }
+
+   // Charsets in which every byte below 128 stands for that ASCII char
+   private static boolean isAsciiCompatible(Charset charset){
+      String name = charset.name();
+      return name.equals("UTF-8") || name.equals("US-ASCII") ||
+             name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+   }
+
+   // Decodes in into out like CharsetDecoder.decode(). TinyAda sources are
+   // almost entirely ASCII, so the bytes before the first non-ASCII one
+   // are copied directly and the decoder only sees the rest.
+   private static CoderResult decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, boolean last){
+      if (isAsciiCompatible(decoder.charset()) && in.hasArray() && out.hasArray()){
+         byte[] from = in.array();
+         char[] to = out.array();
+         int i = in.arrayOffset() + in.position();
+         int iEnd = in.arrayOffset() + in.limit();
+         int j = out.arrayOffset() + out.position();
+         int jEnd = out.arrayOffset() + out.limit();
+         while (i < iEnd && j < jEnd && from[i] >= 0)
+            to[j++] = (char) from[i++];
+         in.position(i - in.arrayOffset());
+         out.position(j - out.arrayOffset());
       }
+      return decoder.decode(in, out, last);
    }
 
-   private void writeFile(FileOutputStream stream, JTextArea input){
-      String text = input.getText();
-      PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream)));
-      writer.print(text);
-      writer.flush();
+   // The source read so far, with normalized line ends
+   protected String getSourceText(){
+      return new String(buffer, 0, bufferLength);
    }
 
 }
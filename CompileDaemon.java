@@ -0,0 +1,302 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Long-lived compile server, so that editors and hooks do not pay for
+// a cold JVM on every compile. The scanner tables and the JIT-compiled
+// parser stay resident between requests.
+//
+// The address is either a port number, meaning that port on the
+// loopback interface, or the path of a Unix domain socket.
+//
+// Only the user running the daemon may use it. A Unix domain socket is
+// only readable and writable by that user. On a port, every request
+// starts with a line holding a random token, which the daemon writes to
+// a file in that user's home directory that only they can read, see
+// tokenFile().
+//
+// A request is then the client's working directory followed by its
+// command-line arguments, one per line, ended by an empty line. The
+// request may only read sources in that directory, and its output only
+// goes back to the client: TerminalApp refuses -o and other files.
+// The response is the output TerminalApp would have written, one line
+// per line: "out:" and the line for standard output, "err:" and the
+// line for standard error. The last line is "exit:" and the status the
+// client exits with. A last line without a newline is sent as a line.
+public class CompileDaemon extends Object{
+
+   private static final String END_OF_REQUEST = "";
+   private static final String OUT = "out:", ERR = "err:", EXIT = "exit:";
+   private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+   private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+   // Serves requests until the process is killed
+   public static void serve(String address){
+      ServerSocketChannel server;
+      // the token of requests on a port, null on a Unix domain socket
+      final String token;
+      try{
+         server = openServer(address);
+         token = address.matches("[0-9]+") ? writeToken(tokenFile(address)) : null;
+      }
+      catch(IOException e){
+         System.out.println("Error opening daemon socket" + e.toString());
+         return;
+      }
+      System.out.println("Listening on " + address);
+      ExecutorService workers = Executors.newCachedThreadPool();
+      while (true){
+         try{
+            final SocketChannel client = server.accept();
+            workers.execute(new Runnable(){
+               public void run(){
+                  handle(client, token);
+               }
+            });
+         }
+         catch(IOException e){
+            System.out.println("Error accepting request" + e.toString());
+         }
+      }
+   }
+
+   // Sends args to the daemon at address and copies its answer to System.out
+   // and System.err. Returns the status to exit with, 1 if the daemon
+   // cannot be reached.
+   public static int forward(String address, String args[]){
+      try{
+         SocketAddress socket = socketAddress(address);
+         String token = null;
+         if (! (socket instanceof UnixDomainSocketAddress))
+            token = new String(Files.readAllBytes(tokenFile(address)), "UTF-8");
+         SocketChannel channel = SocketChannel.open(socket);
+         Writer request = new OutputStreamWriter(Channels.newOutputStream(channel), "UTF-8");
+         if (token != null)
+            request.write(token + "\n");
+         request.write(new File("").getAbsolutePath() + "\n");
+         for (String arg : args)
+            request.write(arg + "\n");
+         request.write(END_OF_REQUEST + "\n");
+         request.flush();
+         BufferedReader response = new BufferedReader(
+                  new InputStreamReader(Channels.newInputStream(channel), "UTF-8"));
+         int status = 1;
+         String line = response.readLine();
+         while (line != null){
+            if (line.startsWith(OUT))
+               System.out.println(line.substring(OUT.length()));
+            else if (line.startsWith(ERR))
+               System.err.println(line.substring(ERR.length()));
+            else if (line.startsWith(EXIT))
+               status = Integer.parseInt(line.substring(EXIT.length()));
+            line = response.readLine();
+         }
+         System.out.flush();
+         channel.close();
+         return status;
+      }
+      catch(IOException | NumberFormatException e){
+         System.out.println("Error contacting daemon" + e.toString());
+         return 1;
+      }
+   }
+
+   private static void handle(SocketChannel client, String token){
+      try{
+         BufferedReader request = new BufferedReader(
+                  new InputStreamReader(Channels.newInputStream(client), "UTF-8"));
+         if (token != null && ! matches(token, request.readLine())){
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(client), "UTF-8");
+            writer.write(ERR + "Request refused: wrong daemon token\n" + EXIT + "1\n");
+            writer.flush();
+            return;
+         }
+         String directory = request.readLine();
+         List<String> args = new ArrayList<String>();
+         String line = request.readLine();
+         while (line != null && ! line.equals(END_OF_REQUEST)){
+            args.add(line);
+            line = request.readLine();
+         }
+         if (directory != null){
+            Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(Channels.newOutputStream(client), "UTF-8"), 64 * 1024);
+            ResponseSink out = new ResponseSink(writer, OUT), err = new ResponseSink(writer, ERR);
+            int status = 0;
+            try{
+               new TerminalApp(args.toArray(new String[0]), new File(directory), out, err);
+            }
+            catch(RuntimeException e){
+               err.print("Error compiling " + e.toString() + "\n");
+               status = 1;
+            }
+            out.end();
+            err.end();
+            writer.write(EXIT + status + "\n");
+            writer.flush();
+         }
+      }
+      catch(IOException e){
+         System.out.println("Error handling request" + e.toString());
+      }
+      finally{
+         try{
+            client.close();
+         }
+         catch(IOException e){}
+      }
+   }
+
+   // One of the streams of a response, written a line at a time into
+   // the writer shared by both
+   private static class ResponseSink extends Object implements OutputSink{
+
+      private Writer writer;
+      private String tag;
+      // the start of a line not yet written
+      private StringBuilder line = new StringBuilder();
+
+      public ResponseSink(Writer writer, String tag){
+         this.writer = writer;
+         this.tag = tag;
+      }
+
+      public void print(String s){
+         print(s.toCharArray(), 0, s.length());
+      }
+
+      public void print(char[] text, int offset, int length){
+         int start = offset, end = offset + length;
+         for (int i = offset; i < end; i++)
+            if (text[i] == '\n'){
+               line.append(text, start, i - start);
+               writeLine();
+               start = i + 1;
+            }
+         line.append(text, start, end - start);
+      }
+
+      public void flush(){
+         try{
+            synchronized (writer){
+               writer.flush();
+            }
+         }
+         catch(IOException e){
+            System.out.println("Error in output" + e.toString());
+         }
+      }
+
+      // Writes the last line, if it has no newline
+      public void end(){
+         if (line.length() > 0)
+            writeLine();
+      }
+
+      private void writeLine(){
+         try{
+            synchronized (writer){
+               writer.write(tag);
+               writer.append(line);
+               writer.write('\n');
+            }
+         }
+         catch(IOException e){
+            System.out.println("Error in output" + e.toString());
+         }
+         line.setLength(0);
+      }
+
+   }
+
+   // Compares the tokens in time independent of where they differ
+   private static boolean matches(String token, String line) throws IOException{
+      return line != null && MessageDigest.isEqual(token.getBytes("UTF-8"), line.getBytes("UTF-8"));
+   }
+
+   private static ServerSocketChannel openServer(String address) throws IOException{
+      SocketAddress socket = socketAddress(address);
+      if (socket instanceof UnixDomainSocketAddress)
+         return openUnixServer((UnixDomainSocketAddress) socket);
+      ServerSocketChannel server = ServerSocketChannel.open();
+      server.bind(socket);
+      return server;
+   }
+
+   // The socket is made in a directory only its owner can enter, given
+   // owner-only permissions there and only then moved to its path, so
+   // nobody else can connect in between
+   private static ServerSocketChannel openUnixServer(UnixDomainSocketAddress socket) throws IOException{
+      removeStaleSocket(socket);
+      Path path = socket.getPath().toAbsolutePath();
+      Path directory = Files.createTempDirectory(path.getParent(), ".daemon",
+                                                 PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+      Path hidden = directory.resolve("socket");
+      ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      try{
+         server.bind(UnixDomainSocketAddress.of(hidden));
+         Files.setPosixFilePermissions(hidden, OWNER_ONLY);
+         Files.move(hidden, path);
+      }
+      catch(IOException e){
+         server.close();
+         Files.deleteIfExists(hidden);
+         throw e;
+      }
+      finally{
+         Files.delete(directory);
+      }
+      return server;
+   }
+
+   // Where the token of the daemon on port is kept, for its clients
+   private static Path tokenFile(String port){
+      return Paths.get(System.getProperty("user.home"), ".tinyada-daemon-" + port);
+   }
+
+   // Writes a new random token to file, which only its owner can read
+   private static String writeToken(Path file) throws IOException{
+      byte[] random = new byte[32];
+      new SecureRandom().nextBytes(random);
+      StringBuilder token = new StringBuilder();
+      for (byte b : random)
+         token.append(String.format("%02x", b));
+      Files.deleteIfExists(file);
+      Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+      Files.write(file, token.toString().getBytes("UTF-8"));
+      return token.toString();
+   }
+
+   // Deletes a socket file left behind by an earlier daemon. Anything
+   // else at the path, or a socket a daemon still listens on, is kept
+   // and the server cannot be opened.
+   private static void removeStaleSocket(UnixDomainSocketAddress socket) throws IOException{
+      Path path = socket.getPath();
+      if (! Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+         return;
+      if (Files.isRegularFile(path) || Files.isDirectory(path))
+         throw new IOException(path + " exists and is not a socket");
+      try{
+         SocketChannel.open(socket).close();
+      }
+      catch(IOException e){
+         // nobody listens: the connection was refused
+         Files.delete(path);
+         return;
+      }
+      throw new IOException("a daemon is already listening on " + path);
+   }
+
+   private static SocketAddress socketAddress(String address){
+      if (address.matches("[0-9]+"))
+         return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+      else
+         return UnixDomainSocketAddress.of(address);
+   }
+
+}
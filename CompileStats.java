@@ -0,0 +1,161 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of where compile time goes, summed over everything compiled in
+// this JVM: bytes read, source lines, tokens per Token code, errors per
+// Diagnostics category and the nanoseconds spent scanning and parsing.
+// They are only kept when the JVM runs with -Dtinyada.stats=true. ENABLED
+// is final, so when it is false the JIT drops every
+// "if (CompileStats.ENABLED)" block and the counting costs nothing.
+// When it is true, the counters are also the MXBean OBJECT_NAME.
+public class CompileStats extends Object implements CompileStatsMXBean{
+
+   public static final boolean ENABLED = Boolean.getBoolean("tinyada.stats");
+   public static final String OBJECT_NAME = "tinyada:type=CompileStats";
+
+   private static final int CATEGORIES = Diagnostics.ROLE + 1;
+
+   // Counters are bumped from all the threads of a parallel compile.
+   // Scanners count their tokens and add them in bulk with the time
+   // they took, see Scanner.publishStats().
+   private static final LongAdder bytes = new LongAdder();
+   private static final LongAdder lines = new LongAdder();
+   private static final LongAdder scanNanos = new LongAdder();
+   private static final LongAdder parseNanos = new LongAdder();
+   private static final LongAdder[] tokens = newAdders(Token.CODE_COUNT);
+   private static final LongAdder[] errors = newAdders(CATEGORIES);
+
+   static{
+      if (ENABLED){
+         try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new CompileStats(), new ObjectName(OBJECT_NAME));
+         }
+         catch(JMException e){
+            System.err.println("Error registering " + OBJECT_NAME + ": " + e.toString());
+         }
+      }
+   }
+
+   private static LongAdder[] newAdders(int n){
+      LongAdder[] adders = new LongAdder[n];
+      for (int i = 0; i < n; i++)
+         adders[i] = new LongAdder();
+      return adders;
+   }
+
+   public static void addBytes(long n){
+      bytes.add(n);
+   }
+
+   public static void addLine(){
+      lines.increment();
+   }
+
+   public static void addError(int category){
+      errors[category].increment();
+   }
+
+   // counts[code] tokens of each code, scanned in nanos
+   public static void addScan(long[] counts, long nanos){
+      for (int code = 0; code < counts.length; code++)
+         if (counts[code] != 0)
+            tokens[code].add(counts[code]);
+      scanNanos.add(nanos);
+   }
+
+   // Adds n to the count of code, e.g. -1 for a token counted but dropped
+   public static void addTokens(int code, long n){
+      tokens[code].add(n);
+   }
+
+   public static void addParse(long nanos){
+      parseNanos.add(nanos);
+   }
+
+   // Writes the counters, for the end of a run
+   public static void printSummary(OutputSink sink){
+      CompileStats stats = new CompileStats();
+      StringBuilder text = new StringBuilder("\nCompile statistics:\n");
+      text.append(String.format("%-12s%d%n", "bytes read", stats.getBytesRead()));
+      text.append(String.format("%-12s%d%n", "lines", stats.getLines()));
+      text.append(String.format("%-12s%d", "tokens", stats.getTokens()));
+      appendCounts(text, stats.getTokensByCode());
+      long total = 0;
+      for (LongAdder adder : errors)
+         total += adder.sum();
+      text.append(String.format("%-12s%d", "errors", total));
+      appendCounts(text, stats.getErrorsByCategory());
+      text.append(String.format("%-12s%.3f ms%n", "scanning", stats.getScanNanos() / 1e6));
+      text.append(String.format("%-12s%.3f ms%n", "parsing", stats.getParseNanos() / 1e6));
+      sink.print(text.toString());
+      sink.flush();
+   }
+
+   // " (NAME count, ...)" for the nonzero counts, and a new line
+   private static void appendCounts(StringBuilder text, Map<String, Long> counts){
+      String separator = " (";
+      for (Map.Entry<String, Long> entry : counts.entrySet())
+         if (entry.getValue() != 0){
+            text.append(separator + entry.getKey() + " " + entry.getValue());
+            separator = ", ";
+         }
+      if (! separator.equals(" ("))
+         text.append(")");
+      text.append("\n");
+   }
+
+   public long getBytesRead(){
+      return bytes.sum();
+   }
+
+   public long getLines(){
+      return lines.sum();
+   }
+
+   public long getTokens(){
+      long total = 0;
+      for (LongAdder adder : tokens)
+         total += adder.sum();
+      return total;
+   }
+
+   public Map<String, Long> getTokensByCode(){
+      Map<String, Long> counts = new LinkedHashMap<String, Long>();
+      for (int code = 0; code < tokens.length; code++){
+         long count = tokens[code].sum();
+         if (count != 0)
+            counts.put(Token.codeName(code), count);
+      }
+      return counts;
+   }
+
+   public Map<String, Long> getErrorsByCategory(){
+      Map<String, Long> counts = new LinkedHashMap<String, Long>();
+      for (int category = 0; category < errors.length; category++)
+         counts.put(Diagnostics.categoryName(category), errors[category].sum());
+      return counts;
+   }
+
+   public long getScanNanos(){
+      return scanNanos.sum();
+   }
+
+   public long getParseNanos(){
+      return parseNanos.sum();
+   }
+
+   public void reset(){
+      bytes.reset();
+      lines.reset();
+      scanNanos.reset();
+      parseNanos.reset();
+      for (LongAdder adder : tokens)
+         adder.reset();
+      for (LongAdder adder : errors)
+         adder.reset();
+   }
+
+}
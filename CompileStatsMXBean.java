@@ -0,0 +1,25 @@
+import java.util.Map;
+
+// The counters of CompileStats as JMX shows them, e.g. in JConsole
+public interface CompileStatsMXBean{
+
+   public long getBytesRead();
+
+   public long getLines();
+
+   public long getTokens();
+
+   // Token counts by code name, e.g. "ID", leaving out codes never seen
+   public Map<String, Long> getTokensByCode();
+
+   // Error counts by Diagnostics category name, e.g. "syntax"
+   public Map<String, Long> getErrorsByCategory();
+
+   public long getScanNanos();
+
+   public long getParseNanos();
+
+   // Sets all the counters back to 0
+   public void reset();
+
+}
@@ -0,0 +1,155 @@
+import java.util.*;
+
+// Collects the errors reported while compiling one source file.
+// Each diagnostic is kept as a line, a column, a category code and the id
+// of its message in parallel arrays; no text is built until one of the
+// print methods is called.
+public class Diagnostics extends Object{
+
+   // Category codes
+   public static final int LEXICAL = 0;
+   public static final int SYNTAX = 1;
+   public static final int SCOPE = 2;
+   public static final int ROLE = 3;
+
+   private static final String CATEGORIES[] = {"lexical", "syntax", "scope", "role"};
+
+   private int[] line, column, code, messageId;
+   private int count;
+   // Distinct message texts, indexed by message id
+   private List<String> messages;
+   private Map<String, Integer> messageIds;
+
+   public Diagnostics(){
+      line = new int[16];
+      column = new int[16];
+      code = new int[16];
+      messageId = new int[16];
+      messages = new ArrayList<String>();
+      messageIds = new HashMap<String, Integer>();
+      count = 0;
+   }
+
+   public void reset(){
+      count = 0;
+   }
+
+   public void add(int lineNumber, int columnNumber, int category, String message){
+      if (count == line.length){
+         line = Arrays.copyOf(line, count * 2);
+         column = Arrays.copyOf(column, count * 2);
+         code = Arrays.copyOf(code, count * 2);
+         messageId = Arrays.copyOf(messageId, count * 2);
+      }
+      Integer id = messageIds.get(message);
+      if (id == null){
+         id = messages.size();
+         messages.add(message);
+         messageIds.put(message, id);
+      }
+      line[count] = lineNumber;
+      column[count] = columnNumber;
+      code[count] = category;
+      messageId[count] = id;
+      count++;
+   }
+
+   public int size(){
+      return count;
+   }
+
+   public int line(int i){
+      return line[i];
+   }
+
+   public int column(int i){
+      return column[i];
+   }
+
+   public int code(int i){
+      return code[i];
+   }
+
+   public String message(int i){
+      return messages.get(messageId[i]);
+   }
+
+   public static String categoryName(int category){
+      return CATEGORIES[category];
+   }
+
+   // Writes one line of text per diagnostic
+   public void printText(OutputSink out){
+      for (int i = 0; i < count; i++)
+         out.print("Line " + line[i] + ", column " + column[i] + ": ERROR > " + message(i) + "\n");
+   }
+
+   // Writes the diagnostics of several files as one JSON array,
+   // uris[i] being the name of the file diagnostics[i] belongs to.
+   public static void printJson(OutputSink out, String[] uris, Diagnostics[] diagnostics){
+      boolean first = true;
+      out.print("[");
+      for (int f = 0; f < diagnostics.length; f++){
+         Diagnostics d = diagnostics[f];
+         for (int i = 0; i < d.count; i++){
+            out.print(first ? "\n" : ",\n");
+            first = false;
+            out.print("  {\"file\": " + quote(uris[f]) +
+                      ", \"line\": " + d.line[i] +
+                      ", \"column\": " + d.column[i] +
+                      ", \"category\": \"" + CATEGORIES[d.code[i]] + "\"" +
+                      ", \"message\": " + quote(d.message(i)) + "}");
+         }
+      }
+      out.print(first ? "]\n" : "\n]\n");
+   }
+
+   // Writes the diagnostics of several files as one SARIF 2.1.0 log
+   public static void printSarif(OutputSink out, String[] uris, Diagnostics[] diagnostics){
+      out.print("{\n");
+      out.print("  \"$schema\": \"https://json.schemastore.org/sarif-2.1.0.json\",\n");
+      out.print("  \"version\": \"2.1.0\",\n");
+      out.print("  \"runs\": [{\n");
+      out.print("    \"tool\": {\"driver\": {\"name\": \"TinyAda\", \"rules\": [");
+      for (int c = 0; c < CATEGORIES.length; c++)
+         out.print((c == 0 ? "" : ", ") + "{\"id\": \"" + CATEGORIES[c] + "\"}");
+      out.print("]}},\n");
+      out.print("    \"results\": [");
+      boolean first = true;
+      for (int f = 0; f < diagnostics.length; f++){
+         Diagnostics d = diagnostics[f];
+         for (int i = 0; i < d.count; i++){
+            out.print(first ? "\n" : ",\n");
+            first = false;
+            out.print("      {\"ruleId\": \"" + CATEGORIES[d.code[i]] + "\"" +
+                      ", \"level\": \"error\"" +
+                      ", \"message\": {\"text\": " + quote(d.message(i)) + "}" +
+                      ", \"locations\": [{\"physicalLocation\": {" +
+                      "\"artifactLocation\": {\"uri\": " + quote(uris[f]) + "}" +
+                      ", \"region\": {\"startLine\": " + d.line[i] +
+                      ", \"startColumn\": " + Math.max(d.column[i], 1) + "}}}]}");
+         }
+      }
+      out.print(first ? "]\n" : "\n    ]\n");
+      out.print("  }]\n");
+      out.print("}\n");
+   }
+
+   // JSON string literal for s
+   private static String quote(String s){
+      StringBuilder b = new StringBuilder(s.length() + 2);
+      b.append('"');
+      for (int i = 0; i < s.length(); i++){
+         char ch = s.charAt(i);
+         if (ch == '"' || ch == '\\')
+            b.append('\\').append(ch);
+         else if (ch < ' ')
+            b.append(String.format("\\u%04x", (int) ch));
+         else
+            b.append(ch);
+      }
+      b.append('"');
+      return b.toString();
+   }
+
+}
@@ -0,0 +1,362 @@
+import java.util.*;
+
+// The TinyAda grammar as data, and the sets computed from it. The EBNF in
+// the comments of Parser is written out in plain BNF: every { } and [ ]
+// becomes a nonterminal of its own. Symbols below NONTERMINAL are
+// terminals, i.e. Token codes, and a set of them is a long with bit
+// "code" set (there are fewer than 64 codes).
+//
+// The grammar is LL(1): the alternatives of a nonterminal start with
+// different tokens. When none of them fits the next token, a nonterminal
+// takes its default alternative, which is the empty one if it has one,
+// else the one the recursive parsing method takes in its else branch;
+// nonterminals with an error message have no default. The table-driven
+// engine of Parser so finds the first error where the methods do.
+public class Grammar extends Object{
+
+   public static final int NONTERMINAL = 64;
+
+   // Nonterminals, mostly named after the Parser methods
+   public static final int PROGRAM = NONTERMINAL;
+   public static final int SUBPROGRAM_BODY = NONTERMINAL + 1;
+   public static final int PROCEDURE_NAME_PART = NONTERMINAL + 2;
+   public static final int SUBPROGRAM_SPECIFICATION = NONTERMINAL + 3;
+   public static final int FORMAL_PART_OPTION = NONTERMINAL + 4;
+   public static final int FORMAL_PART = NONTERMINAL + 5;
+   public static final int MORE_PARAMETERS = NONTERMINAL + 6;
+   public static final int PARAMETER_SPECIFICATION = NONTERMINAL + 7;
+   public static final int MODE = NONTERMINAL + 8;
+   public static final int OUT_PART = NONTERMINAL + 9;
+   public static final int DECLARATIVE_PART = NONTERMINAL + 10;
+   public static final int BASIC_DECLARATION = NONTERMINAL + 11;
+   public static final int NUMBER_OR_OBJECT_DECLARATION = NONTERMINAL + 12;
+   public static final int DECLARATION_TAIL = NONTERMINAL + 13;
+   public static final int TYPE_DECLARATION = NONTERMINAL + 14;
+   public static final int TYPE_DEFINITION = NONTERMINAL + 15;
+   public static final int ENUMERATION_TYPE_DEFINITION = NONTERMINAL + 16;
+   public static final int ARRAY_TYPE_DEFINITION = NONTERMINAL + 17;
+   public static final int MORE_INDEXES = NONTERMINAL + 18;
+   public static final int INDEX = NONTERMINAL + 19;
+   public static final int RANGE = NONTERMINAL + 20;
+   public static final int IDENTIFIER_LIST = NONTERMINAL + 21;
+   public static final int MORE_IDENTIFIERS = NONTERMINAL + 22;
+   public static final int SEQUENCE_OF_STATEMENTS = NONTERMINAL + 23;
+   public static final int MORE_STATEMENTS = NONTERMINAL + 24;
+   public static final int STATEMENT = NONTERMINAL + 25;
+   public static final int NULL_STATEMENT = NONTERMINAL + 26;
+   public static final int LOOP_STATEMENT = NONTERMINAL + 27;
+   public static final int ITERATION_SCHEME = NONTERMINAL + 28;
+   public static final int IF_STATEMENT = NONTERMINAL + 29;
+   public static final int ELSIF_PARTS = NONTERMINAL + 30;
+   public static final int ELSE_PART = NONTERMINAL + 31;
+   public static final int EXIT_STATEMENT = NONTERMINAL + 32;
+   public static final int WHEN_PART = NONTERMINAL + 33;
+   public static final int ASSIGNMENT_OR_CALL_STATEMENT = NONTERMINAL + 34;
+   public static final int ASSIGNMENT_PART = NONTERMINAL + 35;
+   public static final int CONDITION = NONTERMINAL + 36;
+   public static final int EXPRESSION = NONTERMINAL + 37;
+   public static final int LOGICAL_PART = NONTERMINAL + 38;
+   public static final int MORE_ANDS = NONTERMINAL + 39;
+   public static final int MORE_ORS = NONTERMINAL + 40;
+   public static final int RELATION = NONTERMINAL + 41;
+   public static final int RELATIONAL_PART = NONTERMINAL + 42;
+   public static final int RELATIONAL_OPERATOR = NONTERMINAL + 43;
+   public static final int SIMPLE_EXPRESSION = NONTERMINAL + 44;
+   public static final int SIGN = NONTERMINAL + 45;
+   public static final int MORE_TERMS = NONTERMINAL + 46;
+   public static final int ADDING_OPERATOR = NONTERMINAL + 47;
+   public static final int TERM = NONTERMINAL + 48;
+   public static final int MORE_FACTORS = NONTERMINAL + 49;
+   public static final int MULTIPLYING_OPERATOR = NONTERMINAL + 50;
+   public static final int FACTOR = NONTERMINAL + 51;
+   public static final int EXPONENT_PART = NONTERMINAL + 52;
+   public static final int PRIMARY = NONTERMINAL + 53;
+   public static final int NAME = NONTERMINAL + 54;
+   public static final int INDEXED_COMPONENT_OPTION = NONTERMINAL + 55;
+   public static final int INDEXED_COMPONENT = NONTERMINAL + 56;
+   public static final int MORE_EXPRESSIONS = NONTERMINAL + 57;
+   public static final int MORE_DECLARATIONS = NONTERMINAL + 58;
+
+   private static final int NONTERMINALS = 59;
+
+   // The productions: production p is lhs[p] = rhs[p]. Each nonterminal
+   // has its error message or null.
+   private static final List<int[]> rhsList = new ArrayList<int[]>();
+   private static final List<Integer> lhsList = new ArrayList<Integer>();
+   private static final String[] errors = new String[NONTERMINALS];
+   private static int[][] rhs;
+   private static int[] lhs;
+
+   // The message when a terminal is expected but not found
+   private static final String[] expected = new String[NONTERMINAL];
+
+   private static final boolean[] nullable = new boolean[NONTERMINALS];
+   private static final long[] first = new long[NONTERMINALS];
+   private static final long[] follow = new long[NONTERMINALS];
+   // predict[n * NONTERMINAL + code] is the production nonterminal n
+   // expands to when the next token is code, or -1 for an error
+   private static final int[] predict = new int[NONTERMINALS * NONTERMINAL];
+   // the names of the nonterminal constants above, for printing
+   private static final String[] names = new String[NONTERMINALS];
+
+   static{
+      initProductions();
+      initExpected();
+      rhs = rhsList.toArray(new int[0][]);
+      lhs = new int[lhsList.size()];
+      for (int p = 0; p < lhs.length; p++)
+         lhs[p] = lhsList.get(p);
+      initFirst();
+      initFollow();
+      initPredict();
+      initNames();
+   }
+
+   private static void initProductions(){
+      rule(PROGRAM, null, alt(SUBPROGRAM_BODY, Token.EOF));
+      rule(SUBPROGRAM_BODY, null,
+           alt(SUBPROGRAM_SPECIFICATION, Token.IS, DECLARATIVE_PART, Token.BEGIN,
+               SEQUENCE_OF_STATEMENTS, Token.END, PROCEDURE_NAME_PART, Token.SEMI));
+      rule(PROCEDURE_NAME_PART, null, alt(Token.ID), alt());
+      rule(SUBPROGRAM_SPECIFICATION, null, alt(Token.PROC, Token.ID, FORMAL_PART_OPTION));
+      rule(FORMAL_PART_OPTION, null, alt(FORMAL_PART), alt());
+      rule(FORMAL_PART, null, alt(Token.L_PAR, PARAMETER_SPECIFICATION, MORE_PARAMETERS, Token.R_PAR));
+      rule(MORE_PARAMETERS, null, alt(Token.SEMI, PARAMETER_SPECIFICATION, MORE_PARAMETERS), alt());
+      rule(PARAMETER_SPECIFICATION, null, alt(IDENTIFIER_LIST, Token.COLON, MODE, Token.ID));
+      rule(MODE, null, alt(Token.IN, OUT_PART), alt(Token.OUT), alt());
+      rule(OUT_PART, null, alt(Token.OUT), alt());
+      // MORE_DECLARATIONS and MORE_STATEMENTS on the stack of the table-driven
+      // engine are where it recovers from syntax errors
+      rule(DECLARATIVE_PART, null, alt(BASIC_DECLARATION, MORE_DECLARATIONS), alt());
+      rule(MORE_DECLARATIONS, null, alt(BASIC_DECLARATION, MORE_DECLARATIONS), alt());
+      rule(BASIC_DECLARATION, "error in declaration part",
+           alt(NUMBER_OR_OBJECT_DECLARATION), alt(TYPE_DECLARATION), alt(SUBPROGRAM_BODY));
+      rule(NUMBER_OR_OBJECT_DECLARATION, null, alt(IDENTIFIER_LIST, Token.COLON, DECLARATION_TAIL, Token.SEMI));
+      rule(DECLARATION_TAIL, null, alt(Token.CONST, Token.GETS, EXPRESSION), alt(TYPE_DEFINITION));
+      rule(TYPE_DECLARATION, null, alt(Token.TYPE, Token.ID, Token.IS, TYPE_DEFINITION, Token.SEMI));
+      rule(TYPE_DEFINITION, "error in type definition",
+           alt(ENUMERATION_TYPE_DEFINITION), alt(ARRAY_TYPE_DEFINITION), alt(RANGE), alt(Token.ID));
+      rule(ENUMERATION_TYPE_DEFINITION, null, alt(Token.L_PAR, IDENTIFIER_LIST, Token.R_PAR));
+      rule(ARRAY_TYPE_DEFINITION, null,
+           alt(Token.ARRAY, Token.L_PAR, INDEX, MORE_INDEXES, Token.R_PAR, Token.OF, Token.ID));
+      rule(MORE_INDEXES, null, alt(Token.COMMA, INDEX, MORE_INDEXES), alt());
+      rule(INDEX, "error in index", alt(RANGE), alt(Token.ID));
+      rule(RANGE, null, alt(Token.RANGE, SIMPLE_EXPRESSION, Token.THRU, SIMPLE_EXPRESSION));
+      rule(IDENTIFIER_LIST, null, alt(Token.ID, MORE_IDENTIFIERS));
+      rule(MORE_IDENTIFIERS, null, alt(Token.COMMA, Token.ID, MORE_IDENTIFIERS), alt());
+      rule(SEQUENCE_OF_STATEMENTS, null, alt(STATEMENT, MORE_STATEMENTS));
+      rule(MORE_STATEMENTS, null, alt(STATEMENT, MORE_STATEMENTS), alt());
+      rule(STATEMENT, "error in statement",
+           alt(ASSIGNMENT_OR_CALL_STATEMENT), alt(EXIT_STATEMENT), alt(IF_STATEMENT),
+           alt(NULL_STATEMENT), alt(LOOP_STATEMENT));
+      rule(NULL_STATEMENT, null, alt(Token.NULL, Token.SEMI));
+      rule(LOOP_STATEMENT, null,
+           alt(ITERATION_SCHEME, Token.LOOP, SEQUENCE_OF_STATEMENTS, Token.END, Token.LOOP, Token.SEMI));
+      rule(ITERATION_SCHEME, null, alt(Token.WHILE, CONDITION), alt());
+      rule(IF_STATEMENT, null,
+           alt(Token.IF, CONDITION, Token.THEN, SEQUENCE_OF_STATEMENTS, ELSIF_PARTS, ELSE_PART,
+               Token.END, Token.IF, Token.SEMI));
+      rule(ELSIF_PARTS, null, alt(Token.ELSIF, CONDITION, Token.THEN, SEQUENCE_OF_STATEMENTS, ELSIF_PARTS), alt());
+      rule(ELSE_PART, null, alt(Token.ELSE, SEQUENCE_OF_STATEMENTS), alt());
+      rule(EXIT_STATEMENT, null, alt(Token.EXIT, WHEN_PART, Token.SEMI));
+      rule(WHEN_PART, null, alt(Token.WHEN, CONDITION), alt());
+      rule(ASSIGNMENT_OR_CALL_STATEMENT, null, alt(NAME, ASSIGNMENT_PART, Token.SEMI));
+      rule(ASSIGNMENT_PART, null, alt(Token.GETS, EXPRESSION), alt());
+      rule(CONDITION, null, alt(EXPRESSION));
+      // "and" and "or" do not mix without parentheses
+      rule(EXPRESSION, null, alt(RELATION, LOGICAL_PART));
+      rule(LOGICAL_PART, null, alt(Token.AND, RELATION, MORE_ANDS), alt(Token.OR, RELATION, MORE_ORS), alt());
+      rule(MORE_ANDS, null, alt(Token.AND, RELATION, MORE_ANDS), alt());
+      rule(MORE_ORS, null, alt(Token.OR, RELATION, MORE_ORS), alt());
+      rule(RELATION, null, alt(SIMPLE_EXPRESSION, RELATIONAL_PART));
+      rule(RELATIONAL_PART, null, alt(RELATIONAL_OPERATOR, SIMPLE_EXPRESSION), alt());
+      rule(RELATIONAL_OPERATOR, null,
+           alt(Token.EQ), alt(Token.NE), alt(Token.LE), alt(Token.GE), alt(Token.LT), alt(Token.GT));
+      rule(SIMPLE_EXPRESSION, null, alt(SIGN, TERM, MORE_TERMS));
+      rule(SIGN, null, alt(ADDING_OPERATOR), alt());
+      rule(MORE_TERMS, null, alt(ADDING_OPERATOR, TERM, MORE_TERMS), alt());
+      rule(ADDING_OPERATOR, null, alt(Token.PLUS), alt(Token.MINUS));
+      rule(TERM, null, alt(FACTOR, MORE_FACTORS));
+      rule(MORE_FACTORS, null, alt(MULTIPLYING_OPERATOR, FACTOR, MORE_FACTORS), alt());
+      rule(MULTIPLYING_OPERATOR, null, alt(Token.MUL), alt(Token.DIV), alt(Token.MOD));
+      rule(FACTOR, null, alt(Token.NOT, PRIMARY), alt(PRIMARY, EXPONENT_PART));
+      rule(EXPONENT_PART, null, alt(Token.EXPO, PRIMARY), alt());
+      rule(PRIMARY, "error in primary",
+           alt(Token.INT), alt(Token.CHAR), alt(NAME), alt(Token.L_PAR, EXPRESSION, Token.R_PAR));
+      rule(NAME, null, alt(Token.ID, INDEXED_COMPONENT_OPTION));
+      rule(INDEXED_COMPONENT_OPTION, null, alt(INDEXED_COMPONENT), alt());
+      rule(INDEXED_COMPONENT, null, alt(Token.L_PAR, EXPRESSION, MORE_EXPRESSIONS, Token.R_PAR));
+      rule(MORE_EXPRESSIONS, null, alt(Token.COMMA, EXPRESSION, MORE_EXPRESSIONS), alt());
+   }
+
+   private static void initExpected(){
+      for (int code = 0; code < Token.CODE_COUNT; code++)
+         expected[code] = "'" + Token.codeName(code).toLowerCase() + "' expected";
+      expected[Token.ID] = "identifier expected";
+      expected[Token.PROC] = "'procedure' expected";
+      expected[Token.L_PAR] = "'(' expected";
+      expected[Token.R_PAR] = "')' expected";
+      expected[Token.COLON] = "':' expected";
+      expected[Token.GETS] = "':=' expected";
+      expected[Token.SEMI] = "';' expected";
+      expected[Token.THRU] = "'..' expected";
+      // EOF only follows the whole program
+      expected[Token.EOF] = "extra symbols after logical end of program";
+   }
+
+   private static int[] alt(int... symbols){
+      return symbols;
+   }
+
+   private static void rule(int nonterminal, String error, int[]... alternatives){
+      errors[nonterminal - NONTERMINAL] = error;
+      for (int[] alternative : alternatives){
+         lhsList.add(nonterminal);
+         rhsList.add(alternative);
+      }
+   }
+
+   // FIRST of symbols[from ..], without regard to what may follow
+   private static long firstOf(int[] symbols, int from){
+      long set = 0;
+      for (int i = from; i < symbols.length; i++){
+         int symbol = symbols[i];
+         if (symbol < NONTERMINAL)
+            return set | 1L << symbol;
+         set |= first[symbol - NONTERMINAL];
+         if (! nullable[symbol - NONTERMINAL])
+            return set;
+      }
+      return set;
+   }
+
+   private static boolean nullableFrom(int[] symbols, int from){
+      for (int i = from; i < symbols.length; i++)
+         if (symbols[i] < NONTERMINAL || ! nullable[symbols[i] - NONTERMINAL])
+            return false;
+      return true;
+   }
+
+   // Both by iteration up to a fixed point
+   private static void initFirst(){
+      boolean changed = true;
+      while (changed){
+         changed = false;
+         for (int p = 0; p < rhs.length; p++){
+            int n = lhs[p] - NONTERMINAL;
+            long set = first[n] | firstOf(rhs[p], 0);
+            boolean empty = nullable[n] || nullableFrom(rhs[p], 0);
+            if (set != first[n] || empty != nullable[n]){
+               first[n] = set;
+               nullable[n] = empty;
+               changed = true;
+            }
+         }
+      }
+   }
+
+   private static void initFollow(){
+      boolean changed = true;
+      while (changed){
+         changed = false;
+         for (int p = 0; p < rhs.length; p++){
+            int[] symbols = rhs[p];
+            for (int i = 0; i < symbols.length; i++){
+               if (symbols[i] < NONTERMINAL)
+                  continue;
+               int n = symbols[i] - NONTERMINAL;
+               long set = follow[n] | firstOf(symbols, i + 1);
+               if (nullableFrom(symbols, i + 1))
+                  set |= follow[lhs[p] - NONTERMINAL];
+               if (set != follow[n]){
+                  follow[n] = set;
+                  changed = true;
+               }
+            }
+         }
+      }
+   }
+
+   // Fills the LL(1) table, then the defaults into its empty entries
+   private static void initPredict(){
+      Arrays.fill(predict, -1);
+      int[] defaults = new int[NONTERMINALS];
+      Arrays.fill(defaults, -1);
+      for (int p = 0; p < rhs.length; p++){
+         int n = lhs[p] - NONTERMINAL;
+         long set = firstOf(rhs[p], 0);
+         if (nullableFrom(rhs[p], 0)){
+            set |= follow[n];
+            defaults[n] = p;
+         }
+         else if (errors[n] == null && ! nullable[n])
+            defaults[n] = p;
+         for (int code = 0; code < Token.CODE_COUNT; code++)
+            if ((set & 1L << code) != 0){
+               if (predict[n * NONTERMINAL + code] >= 0)
+                  throw new IllegalStateException("grammar is not LL(1): conflict on " + Token.codeName(code));
+               predict[n * NONTERMINAL + code] = p;
+            }
+      }
+      for (int n = 0; n < NONTERMINALS; n++)
+         for (int code = 0; code < NONTERMINAL; code++)
+            if (predict[n * NONTERMINAL + code] < 0)
+               predict[n * NONTERMINAL + code] = defaults[n];
+   }
+
+   private static void initNames(){
+      for (java.lang.reflect.Field field : Grammar.class.getFields())
+         try{
+            int n = field.getInt(null) - NONTERMINAL;
+            if (n >= 0 && n < NONTERMINALS && ! field.getName().equals("NONTERMINAL"))
+               names[n] = field.getName();
+         }
+         catch(IllegalAccessException e){
+            throw new IllegalStateException(e);
+         }
+   }
+
+   public static boolean contains(long set, int code){
+      return (set & 1L << code) != 0;
+   }
+
+   // The tokens a nonterminal can start with
+   public static long first(int nonterminal){
+      return first[nonterminal - NONTERMINAL];
+   }
+
+   // The tokens that can follow a nonterminal
+   public static long follow(int nonterminal){
+      return follow[nonterminal - NONTERMINAL];
+   }
+
+   public static boolean nullable(int nonterminal){
+      return nullable[nonterminal - NONTERMINAL];
+   }
+
+   // The production to expand nonterminal by at token code, or -1
+   public static int predict(int nonterminal, int code){
+      return predict[(nonterminal - NONTERMINAL) * NONTERMINAL + code];
+   }
+
+   // The symbols of a production, left to right. Not to be changed.
+   public static int[] rhs(int production){
+      return rhs[production];
+   }
+
+   // The error message for a nonterminal that cannot start at a token
+   public static String error(int nonterminal){
+      return errors[nonterminal - NONTERMINAL];
+   }
+
+   // The name of a nonterminal, e.g. "IF_STATEMENT"
+   public static String name(int nonterminal){
+      return names[nonterminal - NONTERMINAL];
+   }
+
+   // The error message for a missing terminal
+   public static String expected(int code){
+      return expected[code];
+   }
+
+}
@@ -0,0 +1,95 @@
+import java.util.*;
+
+// Maps each distinct identifier spelling to a dense int id: 0, 1, 2, ...
+// in order of first appearance. Spellings are upper case, so the ids are
+// those of TinyAda's case insensitive names.
+public class IdentifierPool extends Object{
+
+   private int count;
+   // per id: its spelling, the hash of the spelling and its String,
+   // made on demand
+   private char[][] spellings;
+   private int[] hashes;
+   private String[] names;
+   // open addressing table holding id + 1, or 0 for an empty slot
+   private int[] slots;
+
+   public IdentifierPool(){
+      count = 0;
+      spellings = new char[64][];
+      hashes = new int[64];
+      names = new String[64];
+      slots = new int[128];
+   }
+
+   // The hash intern() expects for text[0 .. length - 1]; the Scanner
+   // computes the same one char by char.
+   public static int hash(char[] text, int length){
+      int h = 0;
+      for (int i = 0; i < length; i++)
+         h = 31 * h + text[i];
+      return h;
+   }
+
+   // The id of the spelling text[0 .. length - 1], a new one the first
+   // time it is seen
+   public int intern(char[] text, int length, int hash){
+      int mask = slots.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (slots[slot] != 0){
+         int id = slots[slot] - 1;
+         if (hashes[id] == hash && matches(spellings[id], text, length))
+            return id;
+         slot = (slot + 1) & mask;
+      }
+      if (count == spellings.length){
+         spellings = Arrays.copyOf(spellings, 2 * count);
+         hashes = Arrays.copyOf(hashes, 2 * count);
+         names = Arrays.copyOf(names, 2 * count);
+      }
+      int id = count++;
+      spellings[id] = Arrays.copyOf(text, length);
+      hashes[id] = hash;
+      slots[slot] = id + 1;
+      if (2 * count > slots.length)
+         rehash();
+      return id;
+   }
+
+   public int intern(String name){
+      char[] text = name.toCharArray();
+      return intern(text, text.length, hash(text, text.length));
+   }
+
+   public String getName(int id){
+      if (names[id] == null)
+         names[id] = new String(spellings[id]);
+      return names[id];
+   }
+
+   // Number of ids handed out so far
+   public int size(){
+      return count;
+   }
+
+   private static boolean matches(char[] spelling, char[] text, int length){
+      if (spelling.length != length)
+         return false;
+      for (int i = 0; i < length; i++)
+         if (spelling[i] != text[i])
+            return false;
+      return true;
+   }
+
+   private void rehash(){
+      slots = new int[2 * slots.length];
+      int mask = slots.length - 1;
+      for (int id = 0; id < count; id++){
+         int slot = (hashes[id] ^ (hashes[id] >>> 16)) & mask;
+         while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+         slots[slot] = id + 1;
+      }
+   }
+
+}
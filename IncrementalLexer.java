@@ -0,0 +1,292 @@
+import java.util.*;
+
+// Keeps the tokens of a source that is being edited, line by line.
+// TinyAda tokens never span lines, so an edit only invalidates the lines
+// it touches, and only those are scanned again. Lines are indexed from 0,
+// as in a JTextArea; the lines of a text are the pieces between its '\n's.
+// The tokens of a line serve a syntax highlighter, and toTokenBuffer()
+// hands all of them to a Parser.
+//
+// Every identifier typed gets an id, even one only half typed, so the
+// IdentifierPool is rebuilt from the lines once it has grown to more
+// than twice the identifiers still in use. The ids change then, and a
+// ParseCache drops its bodies when it sees the new pool.
+public class IncrementalLexer extends Object{
+
+   // Each token of a line takes TOKEN_SIZE ints: its code, value, column,
+   // length, offset from the start of the line and the column where the
+   // scanner stopped after it, or NEXT_LINE if that was on the next line.
+   private static final int CODE = 0;
+   private static final int VALUE = 1;
+   private static final int COLUMN = 2;
+   private static final int LENGTH = 3;
+   private static final int OFFSET = 4;
+   private static final int END = 5;
+   private static final int TOKEN_SIZE = 6;
+   private static final int NEXT_LINE = -1;
+
+   private static final int[] NO_TOKENS = new int[0];
+   // The smallest pool that is ever rebuilt
+   private static final int MIN_POOL = 1024;
+
+   // The tokens and lexical errors of one line
+   private static class Line{
+
+      int length;
+      int count;
+      int[] tokens;
+      // per error: the token being scanned when it was reported (count
+      // for the end of the line), its column, category and message
+      int errorCount;
+      int[] errorTokens, errorColumns, errorCodes;
+      String[] errorMessages;
+
+   }
+
+   // Chario over the one line being scanned
+   private static class LineChario extends Chario{
+
+      private char[] text = new char[64];
+      private int length;
+
+      LineChario(){
+         super(new NullSink());
+         setListing(false);
+      }
+
+      // The line is scanned after the next reset()
+      void setLine(CharSequence line){
+         length = line.length();
+         // room for the EL Chario adds
+         if (text.length < length + 1)
+            text = new char[2 * length + 1];
+         for (int i = 0; i < length; i++)
+            text[i] = line.charAt(i);
+      }
+
+      protected void reload(){
+         setSource(text, length);
+      }
+
+   }
+
+   private List<Line> lines;
+   private IdentifierPool identifiers;
+   private LineChario chario;
+   private Scanner scanner;
+   private TokenCursor cursor;
+   // the pool size at which compact() counts the ids in use again
+   private int checkAt;
+
+   public IncrementalLexer(){
+      lines = new ArrayList<Line>();
+      identifiers = new IdentifierPool();
+      chario = new LineChario();
+      scanner = new Scanner(chario, identifiers);
+      cursor = new TokenCursor();
+      checkAt = MIN_POOL;
+      setText("");
+   }
+
+   // Forgets everything and scans text
+   public void setText(CharSequence text){
+      List<CharSequence> pieces = new ArrayList<CharSequence>();
+      int start = 0;
+      for (int i = 0; i < text.length(); i++)
+         if (text.charAt(i) == '\n'){
+            pieces.add(text.subSequence(start, i));
+            start = i + 1;
+         }
+      pieces.add(text.subSequence(start, text.length()));
+      replaceLines(0, lines.size(), pieces);
+   }
+
+   // Replaces the removed lines from first on with newLines, which must
+   // not contain '\n', and scans just those.
+   public void replaceLines(int first, int removed, List<? extends CharSequence> newLines){
+      List<Line> scanned = new ArrayList<Line>(newLines.size());
+      for (CharSequence text : newLines)
+         scanned.add(scanLine(text));
+      List<Line> range = lines.subList(first, first + removed);
+      range.clear();
+      range.addAll(scanned);
+      if (identifiers.size() >= checkAt)
+         compact();
+   }
+
+   public int lineCount(){
+      return lines.size();
+   }
+
+   // The tokens of a line, for a highlighter; EOF is not among them.
+   // Columns count from 1.
+   public int tokenCount(int line){
+      return lines.get(line).count;
+   }
+
+   public int tokenCode(int line, int i){
+      return lines.get(line).tokens[i * TOKEN_SIZE + CODE];
+   }
+
+   public int tokenColumn(int line, int i){
+      return lines.get(line).tokens[i * TOKEN_SIZE + COLUMN];
+   }
+
+   public int tokenLength(int line, int i){
+      return lines.get(line).tokens[i * TOKEN_SIZE + LENGTH];
+   }
+
+   public int errorCount(int line){
+      return lines.get(line).errorCount;
+   }
+
+   public int errorColumn(int line, int i){
+      return lines.get(line).errorColumns[i];
+   }
+
+   public String errorMessage(int line, int i){
+      return lines.get(line).errorMessages[i];
+   }
+
+   // The pool of the ids in the tokens; a new one after an edit that
+   // made it be rebuilt
+   public IdentifierPool getIdentifiers(){
+      return identifiers;
+   }
+
+   // All the tokens and lexical errors, as TokenBuffer.scan() would have
+   // found them in the whole text, for a Parser
+   public TokenBuffer toTokenBuffer(){
+      int total = 0;
+      for (Line line : lines)
+         total += line.count;
+      Diagnostics diagnostics = new Diagnostics();
+      TokenBuffer buffer = new TokenBuffer(identifiers, diagnostics, total + 1);
+      // Chario drops the empty piece after a final '\n'
+      int lineCount = lines.size();
+      if (lineCount > 0 && lines.get(lineCount - 1).length == 0)
+         lineCount--;
+      int lineOffset = 0;
+      for (int n = 0; n < lineCount; n++){
+         Line line = lines.get(n);
+         int number = n + 1;
+         int error = 0;
+         for (int i = 0; i <= line.count; i++){
+            // the errors found while scanning token i
+            while (error < line.errorCount && line.errorTokens[error] == i){
+               diagnostics.add(number, line.errorColumns[error], line.errorCodes[error], line.errorMessages[error]);
+               error++;
+            }
+            if (i == line.count)
+               break;
+            int t = i * TOKEN_SIZE;
+            cursor.code = line.tokens[t + CODE];
+            cursor.value = line.tokens[t + VALUE];
+            cursor.offset = lineOffset + line.tokens[t + OFFSET];
+            cursor.length = line.tokens[t + LENGTH];
+            cursor.line = number;
+            cursor.column = line.tokens[t + COLUMN];
+            int end = line.tokens[t + END];
+            if (end != NEXT_LINE)
+               buffer.add(cursor, number, end, diagnostics.size());
+            else if (number == lineCount)
+               buffer.add(cursor, number, 1, diagnostics.size());
+            else{
+               // a char literal broken by the end of the line, which the
+               // Scanner gives no text, see Scanner.endToken()
+               cursor.offset = lineOffset + line.length + 1;
+               cursor.length = 0;
+               buffer.add(cursor, number + 1, 1, diagnostics.size());
+            }
+         }
+         lineOffset += line.length + 1;
+      }
+      // EOF is found on the last line, at column 1
+      cursor.code = Token.EOF;
+      cursor.offset = lineOffset;
+      cursor.length = 0;
+      cursor.line = lineCount;
+      cursor.column = 1;
+      buffer.add(cursor, lineCount, 1, diagnostics.size());
+      return buffer;
+   }
+
+   // Rebuilds the pool from the identifiers of the lines if fewer than
+   // half of its ids are still in use, giving them new ids
+   private void compact(){
+      boolean[] used = new boolean[identifiers.size()];
+      int live = 0;
+      for (Line line : lines)
+         for (int t = 0; t < line.count * TOKEN_SIZE; t += TOKEN_SIZE)
+            if (line.tokens[t + CODE] == Token.ID && ! used[line.tokens[t + VALUE]]){
+               used[line.tokens[t + VALUE]] = true;
+               live++;
+            }
+      if (2 * live < identifiers.size()){
+         IdentifierPool pool = new IdentifierPool();
+         int[] ids = new int[used.length];
+         for (int id = 0; id < used.length; id++)
+            if (used[id])
+               ids[id] = pool.intern(identifiers.getName(id));
+         for (Line line : lines)
+            for (int t = 0; t < line.count * TOKEN_SIZE; t += TOKEN_SIZE)
+               if (line.tokens[t + CODE] == Token.ID)
+                  line.tokens[t + VALUE] = ids[line.tokens[t + VALUE]];
+         identifiers = pool;
+         scanner = new Scanner(chario, identifiers);
+      }
+      checkAt = Math.max(MIN_POOL, 2 * identifiers.size());
+   }
+
+   private Line scanLine(CharSequence text){
+      Line line = new Line();
+      line.length = text.length();
+      line.tokens = NO_TOKENS;
+      chario.setLine(text);
+      scanner.reset();
+      Diagnostics diagnostics = chario.getDiagnostics();
+      int reported = 0;
+      while (true){
+         scanner.nextToken(cursor);
+         for (; reported < diagnostics.size(); reported++)
+            addError(line, diagnostics, reported);
+         if (cursor.code == Token.EOF)
+            break;
+         if ((line.count + 1) * TOKEN_SIZE > line.tokens.length)
+            line.tokens = Arrays.copyOf(line.tokens, Math.max(8, 2 * line.count) * TOKEN_SIZE);
+         int t = line.count * TOKEN_SIZE;
+         line.tokens[t + CODE] = cursor.code;
+         line.tokens[t + VALUE] = cursor.value;
+         line.tokens[t + COLUMN] = cursor.column;
+         line.tokens[t + LENGTH] = cursor.length;
+         line.tokens[t + OFFSET] = cursor.offset;
+         // past the EL that ends the line, the scanner is on the next one
+         line.tokens[t + END] = chario.getPosition() > line.length ? NEXT_LINE : chario.getColumn();
+         line.count++;
+      }
+      scanner.publishStats();
+      return line;
+   }
+
+   private void addError(Line line, Diagnostics diagnostics, int i){
+      if (line.errorCount == 0){
+         line.errorTokens = new int[2];
+         line.errorColumns = new int[2];
+         line.errorCodes = new int[2];
+         line.errorMessages = new String[2];
+      }
+      else if (line.errorCount == line.errorTokens.length){
+         int size = 2 * line.errorCount;
+         line.errorTokens = Arrays.copyOf(line.errorTokens, size);
+         line.errorColumns = Arrays.copyOf(line.errorColumns, size);
+         line.errorCodes = Arrays.copyOf(line.errorCodes, size);
+         line.errorMessages = Arrays.copyOf(line.errorMessages, size);
+      }
+      line.errorTokens[line.errorCount] = line.count;
+      line.errorColumns[line.errorCount] = diagnostics.column(i);
+      line.errorCodes[line.errorCount] = diagnostics.code(i);
+      line.errorMessages[line.errorCount] = diagnostics.message(i);
+      line.errorCount++;
+   }
+
+}
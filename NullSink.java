@@ -0,0 +1,10 @@
+// Sink that discards everything written to it.
+public class NullSink extends Object implements OutputSink{
+
+   public void print(String s){}
+
+   public void print(char[] text, int offset, int length){}
+
+   public void flush(){}
+
+}
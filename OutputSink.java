@@ -0,0 +1,13 @@
+// Destination for everything Chario writes: the source listing,
+// error messages and the reports of the other phases.
+public interface OutputSink{
+
+   public void print(String s);
+
+   // Writes length chars of text, starting at offset
+   public void print(char[] text, int offset, int length);
+
+   // Pushes buffered output to its destination
+   public void flush();
+
+}
@@ -0,0 +1,147 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Scans a source held in memory as a whole on several threads. No TinyAda
+// token crosses a line end, so the source is cut into chunks of whole
+// lines, each chunk is scanned into a TokenBuffer of its own, and the
+// chunks are stitched into the same TokenBuffer TokenBuffer.scan() returns:
+// lines, identifier ids and lexical errors are renumbered in source order.
+public class ParallelLexer extends Object{
+
+   // Chunks are at most MAX_CHUNK and, unless the source is small, at
+   // least MIN_CHUNK chars; there are a few per thread to even out the load.
+   private static final int MAX_CHUNK = 4 * 1024 * 1024;
+   private static final int MIN_CHUNK = 64 * 1024;
+   private static final int CHUNKS_PER_THREAD = 4;
+
+   public static TokenBuffer scan(Chario chario, ForkJoinPool pool){
+      int size = chario.getBufferLength() / (CHUNKS_PER_THREAD * pool.getParallelism()) + 1;
+      return scan(chario, pool, Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size)));
+   }
+
+   // The same with chunks of about chunkSize chars
+   public static TokenBuffer scan(Chario chario, ForkJoinPool pool, int chunkSize){
+      chario.holdListing();
+      char[] text = chario.getBuffer();
+      int length = chario.getBufferLength();
+      // Each chunk ends just after an EL
+      List<Callable<TokenBuffer>> tasks = new ArrayList<Callable<TokenBuffer>>();
+      List<Integer> ends = new ArrayList<Integer>();
+      int start = 0;
+      do{
+         int end = Math.min(start + chunkSize, length);
+         while (end < length && text[end - 1] != Chario.EL)
+            end++;
+         tasks.add(new ScanTask(chario, start, end));
+         ends.add(end);
+         start = end;
+      }while (start < length);
+      List<TokenBuffer> chunks = new ArrayList<TokenBuffer>();
+      for (Future<TokenBuffer> result : pool.invokeAll(tasks))
+         chunks.add(get(result));
+
+      // Token, line and error numbers where each chunk starts, and the
+      // global ids of its identifiers; all but the last chunk lose their EOF.
+      int n = chunks.size();
+      int[] at = new int[n], lineOffsets = new int[n], errorOffsets = new int[n], sizes = new int[n];
+      int[][] ids = new int[n][];
+      IdentifierPool identifiers = new IdentifierPool();
+      Diagnostics diagnostics = new Diagnostics();
+      int total = 0, lines = 0;
+      for (int k = 0; k < n; k++){
+         TokenBuffer chunk = chunks.get(k);
+         at[k] = total;
+         lineOffsets[k] = lines;
+         errorOffsets[k] = diagnostics.size();
+         sizes[k] = k < n - 1 ? chunk.size() - 1 : chunk.size();
+         IdentifierPool names = chunk.getIdentifiers();
+         ids[k] = new int[names.size()];
+         for (int id = 0; id < names.size(); id++)
+            ids[k][id] = identifiers.intern(names.getName(id));
+         Diagnostics errors = chunk.getDiagnostics();
+         for (int i = 0; i < errors.size(); i++)
+            diagnostics.add(errors.line(i) + lines, errors.column(i), errors.code(i), errors.message(i));
+         total += sizes[k];
+         // the line of EOF is the last line of the chunk
+         lines += chunk.line(chunk.size() - 1);
+      }
+      TokenBuffer tokens = new TokenBuffer(identifiers, diagnostics, total);
+      List<Callable<TokenBuffer>> copies = new ArrayList<Callable<TokenBuffer>>();
+      for (int k = 0; k < n; k++)
+         copies.add(new CopyTask(tokens, chunks.get(k), sizes[k], at[k], lineOffsets[k], errorOffsets[k], ids[k]));
+      for (Future<TokenBuffer> result : pool.invokeAll(copies))
+         get(result);
+      tokens.setSize(total);
+      // every chunk counted its EOF
+      if (CompileStats.ENABLED)
+         CompileStats.addTokens(Token.EOF, -(n - 1));
+
+      // A char literal broken by the end of a line stops the scanner on
+      // the next line, and it then gives the token no text, see
+      // Scanner.endToken(). At the end of a chunk, there was no next line.
+      for (int k = 0; k < n - 1; k++){
+         int last = at[k] + sizes[k] - 1;
+         if (sizes[k] > 0 && tokens.code(last) == Token.CHAR &&
+             tokens.endLine(last) == tokens.line(last) && tokens.endColumn(last) == 1){
+            tokens.setText(last, ends.get(k), 0);
+            tokens.setEnd(last, tokens.line(last) + 1, 1);
+         }
+      }
+      return tokens;
+   }
+
+   private static TokenBuffer get(Future<TokenBuffer> result){
+      try{
+         return result.get();
+      }catch(InterruptedException e){
+         throw new RuntimeException(e);
+      }catch(ExecutionException e){
+         throw new RuntimeException(e.getCause());
+      }
+   }
+
+   // Scans the chunk [start, end) of the source
+   private static class ScanTask implements Callable<TokenBuffer>{
+
+      private Chario source;
+      private int start, end;
+
+      public ScanTask(Chario source, int start, int end){
+         this.source = source;
+         this.start = start;
+         this.end = end;
+      }
+
+      public TokenBuffer call(){
+         Chario chario = new Chario(source, start, end);
+         return TokenBuffer.scan(chario, new Scanner(chario), (end - start) / 4);
+      }
+
+   }
+
+   // Copies one chunk into the stitched buffer
+   private static class CopyTask implements Callable<TokenBuffer>{
+
+      private TokenBuffer tokens, chunk;
+      private int size, at, lineOffset, errorOffset;
+      private int[] ids;
+
+      public CopyTask(TokenBuffer tokens, TokenBuffer chunk, int size, int at,
+                      int lineOffset, int errorOffset, int[] ids){
+         this.tokens = tokens;
+         this.chunk = chunk;
+         this.size = size;
+         this.at = at;
+         this.lineOffset = lineOffset;
+         this.errorOffset = errorOffset;
+         this.ids = ids;
+      }
+
+      public TokenBuffer call(){
+         tokens.copy(chunk, size, at, lineOffset, errorOffset, ids);
+         return tokens;
+      }
+
+   }
+
+}
@@ -0,0 +1,469 @@
+import java.util.*;
+
+// What Parser found in the procedure bodies of a source, so that parsing
+// it again after an edit replays the bodies that did not change instead
+// of parsing them. A body is keyed by a hash of its tokens and replayed
+// only if the names it uses from outside still stand for entries of the
+// same role and level: then it would be parsed just as before. Replaying
+// reports its errors and prints its scopes at the same tokens again, and
+// enters the procedure's name as parsing does.
+//
+// Parser records while it parses: errors, entered names, printed scopes
+// and names looked up, in one log for all the bodies open. A body that
+// is parsed through to its ';' is saved with its part of the log.
+// Bodies are cached when a TokenBuffer is parsed without a syntax tree.
+// The TokenBuffers must come from the same IdentifierPool, as those of an
+// IncrementalLexer do. A cache serves one Parser at a time, and each of
+// the caches fork() makes serves one task of a parallel parse.
+public class ParseCache extends Object{
+
+   // What replay() returns for a body that must be parsed
+   static final int MISS = Integer.MIN_VALUE;
+
+   // Kinds of events besides the categories of Diagnostics, for errors
+   private static final int ENTER = -1, EXIT = -2;
+
+   private static final long BASE = 0x100000001b3L;
+
+   // A body: its length in tokens, the level of the scope it is declared
+   // in, the change of Parser's open blocks, its events at tokens counted
+   // from its first, with levels counted from that scope, the entries it
+   // looked up outside itself (id, role and level, or -1 for none) and
+   // its nested bodies
+   private static class Body{
+
+      int length, level, blocks, used;
+      int[] eventTokens, eventCodes, eventLevels, eventIds;
+      String[] eventTexts;
+      int[] dependencyIds, dependencyRoles, dependencyLevels;
+      long[] children;
+
+   }
+
+   private Map<Long, Body> bodies;
+   // The procedures of the parse in source order: their first token, the
+   // token after their body or -1, and the hashes of the tokens before
+   // those two. While scanning, the blocks open and the procedures whose
+   // end hash is still to come, in the order of their ends.
+   private int procedures;
+   private int[] starts, ends;
+   private long[] startHashes, endHashes;
+   private int[] stack, waiting;
+   private int mode = -1;
+   private IdentifierPool identifiers;
+   // the number of parses so far; bodies not used in the last are dropped
+   private int parses;
+   // bodies replayed in the last parse
+   private int replayed;
+
+   // The log: events, their token, code (error category, ENTER or EXIT),
+   // level, id entered and message or scope text
+   private int eventCount;
+   private int[] eventTokens, eventCodes, eventLevels, eventIds;
+   private String[] eventTexts;
+   // entries looked up, null for an undeclared name
+   private int dependencyCount;
+   private int[] dependencyIds;
+   private SymbolEntry[] dependencies;
+   // keys of the bodies parsed or replayed
+   private int childCount;
+   private long[] children;
+
+   // The bodies being recorded, innermost last: key, first and end token,
+   // level, open blocks before, the log's sizes when it started and the
+   // entry of the procedure's name
+   private int open;
+   private long[] openKeys;
+   private int[] openStarts, openEnds, openLevels, openBlocks, openEvents, openDependencies, openChildren;
+   private SymbolEntry[] openNames;
+
+   public ParseCache(){
+      bodies = new HashMap<Long, Body>();
+      starts = new int[64];
+      ends = new int[64];
+      startHashes = new long[64];
+      endHashes = new long[64];
+      stack = new int[16];
+      waiting = new int[16];
+      eventTokens = new int[64];
+      eventCodes = new int[64];
+      eventLevels = new int[64];
+      eventIds = new int[64];
+      eventTexts = new String[64];
+      dependencyIds = new int[256];
+      dependencies = new SymbolEntry[256];
+      children = new long[64];
+      openKeys = new long[16];
+      openStarts = new int[16];
+      openEnds = new int[16];
+      openLevels = new int[16];
+      openBlocks = new int[16];
+      openEvents = new int[16];
+      openDependencies = new int[16];
+      openChildren = new int[16];
+      openNames = new SymbolEntry[16];
+   }
+
+   public void clear(){
+      bodies.clear();
+   }
+
+   // The number of bodies cached
+   public int size(){
+      return bodies.size();
+   }
+
+   // The number of bodies the last parse replayed, nested ones not counted
+   public int getReplayed(){
+      return replayed;
+   }
+
+   // Called by Parser.parse(); bodies found in another mode or with other
+   // identifier ids are of no use. Finds the ends of all the bodies in
+   // tokens and hashes them, in one pass, for bodyEnd() and key().
+   void startParse(int parseMode, IdentifierPool pool, TokenBuffer tokens){
+      if (parseMode != mode || pool != identifiers)
+         bodies.clear();
+      mode = parseMode;
+      identifiers = pool;
+      parses++;
+      replayed = 0;
+      open = 0;
+      eventCount = dependencyCount = childCount = 0;
+      scan(tokens);
+   }
+
+   // A cache for a task of the parse: it finds the bodies this one found,
+   // and its own are added to this one by join()
+   ParseCache fork(){
+      ParseCache part = new ParseCache();
+      part.mode = mode;
+      part.identifiers = identifiers;
+      part.parses = parses;
+      part.procedures = procedures;
+      part.starts = starts;
+      part.ends = ends;
+      part.startHashes = startHashes;
+      part.endHashes = endHashes;
+      return part;
+   }
+
+   void join(ParseCache part){
+      bodies.putAll(part.bodies);
+   }
+
+   boolean contains(long key){
+      return bodies.containsKey(key);
+   }
+
+   // Drops the bodies the parse did not use
+   void endParse(){
+      Iterator<Body> i = bodies.values().iterator();
+      while (i.hasNext())
+         if (i.next().used != parses)
+            i.remove();
+      open = 0;
+      eventCount = dependencyCount = childCount = 0;
+      // no references to the parse's symbol table are kept
+      Arrays.fill(dependencies, null);
+      Arrays.fill(openNames, null);
+   }
+
+   // Finds the procedures and hashes. The blocks are counted as
+   // Parser.advance() counts them, the open ones on a stack: a "procedure"
+   // pushes its number, an "if" or "loop" that does not follow "end"
+   // pushes -1, and an "end" pops the block it closes. The hash of the
+   // tokens before token i is hash when i is reached.
+   private void scan(TokenBuffer tokens){
+      int size = tokens.size();
+      int top = 0, first = 0, last = 0;
+      boolean afterEnd = false;
+      long hash = 0;
+      procedures = 0;
+      for (int i = 0; i < size; i++){
+         while (first < last && ends[waiting[first]] == i)
+            endHashes[waiting[first++]] = hash;
+         int code = tokens.code(i);
+         if (code == Token.END){
+            if (top > 0 && stack[--top] >= 0){
+               int end = i + 1;
+               if (end < size && tokens.code(end) == Token.ID)
+                  end++;
+               if (end < size && tokens.code(end) == Token.SEMI){
+                  ends[stack[top]] = end + 1;
+                  if (last == waiting.length)
+                     waiting = Arrays.copyOf(waiting, 2 * last);
+                  waiting[last++] = stack[top];
+               }
+            }
+            afterEnd = true;
+         }
+         else{
+            if (code == Token.PROC || ! afterEnd && (code == Token.IF || code == Token.LOOP)){
+               if (top == stack.length)
+                  stack = Arrays.copyOf(stack, 2 * top);
+               stack[top++] = code == Token.PROC ? addProcedure(i, hash) : -1;
+            }
+            else if (code == Token.EOF)
+               break;
+            afterEnd = false;
+         }
+         hash = hash * BASE + ((long) tokens.value(i) << 7 ^ code);
+      }
+      // a body may end with the last token
+      while (first < last)
+         endHashes[waiting[first++]] = hash;
+   }
+
+   private int addProcedure(int start, long hash){
+      if (procedures == starts.length){
+         int size = 2 * procedures;
+         starts = Arrays.copyOf(starts, size);
+         ends = Arrays.copyOf(ends, size);
+         startHashes = Arrays.copyOf(startHashes, size);
+         endHashes = Arrays.copyOf(endHashes, size);
+      }
+      starts[procedures] = start;
+      ends[procedures] = -1;
+      startHashes[procedures] = hash;
+      return procedures++;
+   }
+
+   // The token after the body of the procedure whose "procedure" is token
+   // start, or -1 if it has no end
+   int bodyEnd(int start){
+      int k = Arrays.binarySearch(starts, 0, procedures, start);
+      return k < 0 ? -1 : ends[k];
+   }
+
+   // A hash of the codes and values of the tokens of the body that starts
+   // at token start, which has an end: they are the digits of a number to
+   // BASE, modulo 2^64
+   long key(int start){
+      int k = Arrays.binarySearch(starts, 0, procedures, start);
+      long power = 1, base = BASE;
+      for (int n = ends[k] - start; n > 0; n >>= 1){
+         if ((n & 1) != 0)
+            power *= base;
+         base *= base;
+      }
+      return endHashes[k] - startHashes[k] * power;
+   }
+
+   boolean recording(){
+      return open > 0;
+   }
+
+   void addError(int token, int category, String message){
+      addEvent(token, category, 0, 0, message);
+   }
+
+   // A name entered at level; error is the message reported, if any
+   void addEnter(int token, int level, SymbolEntry entry, int id, String error){
+      addEvent(token, ENTER, level, id, error);
+      // the first name the innermost body enters in the scope it is
+      // declared in is its own
+      if (level == openLevels[open - 1] && openNames[open - 1] == null)
+         openNames[open - 1] = entry;
+   }
+
+   void addScope(int token, int level, String text){
+      addEvent(token, EXIT, level, 0, text);
+   }
+
+   private void addEvent(int token, int code, int level, int id, String text){
+      if (eventCount == eventTokens.length){
+         int size = 2 * eventCount;
+         eventTokens = Arrays.copyOf(eventTokens, size);
+         eventCodes = Arrays.copyOf(eventCodes, size);
+         eventLevels = Arrays.copyOf(eventLevels, size);
+         eventIds = Arrays.copyOf(eventIds, size);
+         eventTexts = Arrays.copyOf(eventTexts, size);
+      }
+      eventTokens[eventCount] = token;
+      eventCodes[eventCount] = code;
+      eventLevels[eventCount] = level;
+      eventIds[eventCount] = id;
+      eventTexts[eventCount] = text;
+      eventCount++;
+   }
+
+   // The entry the name id was found to be, or null if it was undeclared
+   void addDependency(int id, SymbolEntry entry){
+      if (dependencyCount == dependencyIds.length){
+         dependencyIds = Arrays.copyOf(dependencyIds, 2 * dependencyCount);
+         dependencies = Arrays.copyOf(dependencies, dependencyIds.length);
+      }
+      dependencyIds[dependencyCount] = id;
+      dependencies[dependencyCount] = entry;
+      dependencyCount++;
+   }
+
+   private void addChild(long key){
+      if (childCount == children.length)
+         children = Arrays.copyOf(children, 2 * childCount);
+      children[childCount++] = key;
+   }
+
+   // Starts recording the body of tokens start to end, declared at level
+   void startBody(long key, int start, int end, int level, int blocks){
+      if (open == openKeys.length){
+         int size = 2 * open;
+         openKeys = Arrays.copyOf(openKeys, size);
+         openStarts = Arrays.copyOf(openStarts, size);
+         openEnds = Arrays.copyOf(openEnds, size);
+         openLevels = Arrays.copyOf(openLevels, size);
+         openBlocks = Arrays.copyOf(openBlocks, size);
+         openEvents = Arrays.copyOf(openEvents, size);
+         openDependencies = Arrays.copyOf(openDependencies, size);
+         openChildren = Arrays.copyOf(openChildren, size);
+         openNames = Arrays.copyOf(openNames, size);
+      }
+      openKeys[open] = key;
+      openStarts[open] = start;
+      openEnds[open] = end;
+      openLevels[open] = level;
+      openBlocks[open] = blocks;
+      openEvents[open] = eventCount;
+      openDependencies[open] = dependencyCount;
+      openChildren[open] = childCount;
+      openNames[open] = null;
+      open++;
+   }
+
+   // Ends the innermost body, with the parser at token index and blocks
+   // open. It is saved if it ended where bodyEnd() said and without an
+   // error it could not recover from.
+   void endBody(boolean complete, int index, int blocks){
+      open--;
+      if (complete && index == openEnds[open])
+         save(blocks);
+      if (open == 0)
+         eventCount = dependencyCount = childCount = 0;
+   }
+
+   private void save(int blocks){
+      int start = openStarts[open], level = openLevels[open];
+      Body body = new Body();
+      body.length = openEnds[open] - start;
+      body.level = level;
+      body.blocks = blocks - openBlocks[open];
+      body.used = parses;
+      // names entered within the body are gone with its scopes, only their
+      // errors remain
+      int n = 0;
+      for (int i = openEvents[open]; i < eventCount; i++)
+         if (eventCodes[i] != ENTER || eventLevels[i] == level || eventTexts[i] != null)
+            n++;
+      body.eventTokens = new int[n];
+      body.eventCodes = new int[n];
+      body.eventLevels = new int[n];
+      body.eventIds = new int[n];
+      body.eventTexts = new String[n];
+      n = 0;
+      for (int i = openEvents[open]; i < eventCount; i++){
+         int code = eventCodes[i];
+         if (code == ENTER && eventLevels[i] != level){
+            if (eventTexts[i] == null)
+               continue;
+            code = Diagnostics.SCOPE;
+         }
+         body.eventTokens[n] = eventTokens[i] - start;
+         body.eventCodes[n] = code;
+         body.eventLevels[n] = eventLevels[i] - level;
+         body.eventIds[n] = eventIds[i];
+         body.eventTexts[n] = eventTexts[i];
+         n++;
+      }
+      // the entries from outside, each name once; the procedure's own name
+      // is entered again before the names that were found to be it
+      SymbolEntry name = openNames[open];
+      Set<Integer> seen = new HashSet<Integer>();
+      List<Integer> ids = new ArrayList<Integer>();
+      List<SymbolEntry> found = new ArrayList<SymbolEntry>();
+      for (int i = openDependencies[open]; i < dependencyCount; i++){
+         SymbolEntry entry = dependencies[i];
+         if ((entry == null || entry.level <= level && entry != name) && seen.add(dependencyIds[i])){
+            ids.add(dependencyIds[i]);
+            found.add(entry);
+         }
+      }
+      body.dependencyIds = new int[ids.size()];
+      body.dependencyRoles = new int[ids.size()];
+      body.dependencyLevels = new int[ids.size()];
+      for (int i = 0; i < ids.size(); i++){
+         SymbolEntry entry = found.get(i);
+         body.dependencyIds[i] = ids.get(i);
+         body.dependencyRoles[i] = entry == null ? -1 : entry.role;
+         body.dependencyLevels[i] = entry == null ? -1 : entry.level;
+      }
+      body.children = Arrays.copyOfRange(children, openChildren[open], childCount);
+      long key = openKeys[open];
+      bodies.put(key, body);
+      if (open > 0)
+         addChild(key);
+   }
+
+   // Replays the body of tokens start to end if it is cached and the names
+   // it uses from outside are still the same in table, which is null
+   // without scope analysis. Returns the change of Parser's open blocks,
+   // or MISS if the body must be parsed.
+   int replay(long key, int start, int end, Chario chario, TokenBuffer tokens, SymbolTable table){
+      Body body = bodies.get(key);
+      int level = table == null ? 0 : table.getLevel();
+      // at another level, the names it enters may clash with others
+      if (body == null || body.length != end - start || body.level != level)
+         return MISS;
+      for (int i = 0; i < body.dependencyIds.length; i++){
+         SymbolEntry entry = table.lookup(body.dependencyIds[i]);
+         if (entry == null ? body.dependencyRoles[i] != -1 :
+             entry.role != body.dependencyRoles[i] || entry.level != body.dependencyLevels[i])
+            return MISS;
+         // the body being replayed uses these too
+         if (open > 0)
+            addDependency(body.dependencyIds[i], entry);
+      }
+      for (int i = 0; i < body.eventTokens.length; i++){
+         int token = start + body.eventTokens[i];
+         chario.replayTo(tokens.endLine(token), tokens.endColumn(token), tokens.errors(token));
+         int code = body.eventCodes[i];
+         if (code == ENTER){
+            // the name of the procedure, in the scope it is declared in
+            SymbolEntry entry = table.enterSymbol(body.eventIds[i]);
+            if (entry != null && mode == Parser.ROLE)
+               entry.setRole(SymbolEntry.PROC);
+            if (open > 0){
+               Diagnostics diagnostics = chario.getDiagnostics();
+               addEnter(token, level, entry, body.eventIds[i],
+                        entry == null ? diagnostics.message(diagnostics.size() - 1) : null);
+            }
+         }
+         else if (code == EXIT){
+            table.printScope(level + body.eventLevels[i], body.eventTexts[i]);
+            if (open > 0)
+               addScope(token, level + body.eventLevels[i], body.eventTexts[i]);
+         }
+         else{
+            chario.putError(code, body.eventTexts[i]);
+            if (open > 0)
+               addError(token, code, body.eventTexts[i]);
+         }
+      }
+      use(body);
+      replayed++;
+      if (open > 0)
+         addChild(key);
+      return body.blocks;
+   }
+
+   // Keeps a body and those nested in it for the next parse
+   private void use(Body body){
+      body.used = parses;
+      for (long key : body.children){
+         Body child = bodies.get(key);
+         if (child != null)
+            use(child);
+      }
+   }
+
+}
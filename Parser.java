@@ -14,8 +14,11 @@
 // 3. Whenever an identifier reference is encountered, the parser searches for that info in the stack.
 // 4. The parser can detect two scope errors: redeclaration error and undeclaration error.
 
-// ! The parser does not halt when a scope error (one of the two above) occurs
+// ! The parser does not halt when a scope error (one of the two above) occurs,
+// ! nor when a syntax error occurs: it skips to the end of the statement or
+// ! declaration and goes on from there (panic-mode recovery).
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Parser extends Object{
    // some constants deciding parsing mode
@@ -29,69 +32,150 @@ public class Parser extends Object{
 
    private Chario chario;
    private Scanner scanner;
+   // Tokens scanned in advance, or null to scan while parsing;
+   // index is the position of token in tokens.
+   private TokenBuffer tokens;
+   private int index;
+   private IdentifierPool identifiers;
    // next token waiting to be processes
-   private Token token;
+   private TokenCursor token;
    private SymbolTable table;
    private final int mode;
+   // parse() runs the table-driven engine instead of the methods below
+   private boolean tableDriven;
+   // tokens advanced over, the number of them when the last syntax error
+   // was reported, and the number of scopes entered
+   private int advanced, lastError = -1, scopes;
+   // blocks open: procedures, if and loop statements not yet closed by
+   // their "end", as counted by advance(), which also notes whether the
+   // last token was "end"
+   private int blocks;
+   private boolean afterEnd;
+   // the tree parse() builds, or null for none
+   private SyntaxTree tree;
+   // bodies parsed before, or null; caching is on while parse() uses it
+   private ParseCache cache;
+   private boolean caching;
+   // parse() parses the nested bodies ahead on pool, see parseAhead();
+   // ahead is on for the outline parsed then, which leaves the bodies of
+   // up to grain tokens to tasks
+   private ForkJoinPool pool;
+   private boolean ahead;
+   private int grain;
+   // the stack of the expression engine, see expression(), with the
+   // symbol entry of each index list's name beside its frame
+   private int[] waitingStack = new int[64];
+   private SymbolEntry[] entries = new SymbolEntry[64];
+   private int waitingTop;
    // these sets include some of TinyAda's operator symbols
-   // and the tokens that begin various declarations and statements in the language
-   // see initHandles for details
-   private Set<Integer> addingOperator,
-                        multiplyingOperator,
-                        relationalOperator,
-                        basicDeclarationHandles,
-                        statementHandles,
-                        leftNames, // Sets of roles for names (see below)
-                        rightNames;
+   // and the tokens that begin various declarations and statements in the language,
+   // as bit sets of token codes (see Grammar)
+   private static final long addingOperator = Grammar.first(Grammar.ADDING_OPERATOR),
+                             multiplyingOperator = Grammar.first(Grammar.MULTIPLYING_OPERATOR),
+                             relationalOperator = Grammar.first(Grammar.RELATIONAL_OPERATOR),
+                             basicDeclarationHandles = Grammar.first(Grammar.BASIC_DECLARATION),
+                             statementHandles = Grammar.first(Grammar.STATEMENT);
+   // Sets of roles for names, with bit role set:
+   // targets of assignment statements, and names in expressions
+   private static final long leftNames = 1L << SymbolEntry.PARAM | 1L << SymbolEntry.VAR,
+                             rightNames = leftNames | 1L << SymbolEntry.CONST;
+   // The expression engine: the kinds of frame, what an operand may
+   // begin with, and the bits for the operators waiting for one
+   private static final int EXPRESSION_FRAME = 0, SIMPLE_FRAME = 1, PARENS_FRAME = 2, INDEX_FRAME = 3;
+   private static final int SIMPLE_START = 0, FACTOR_START = 1, PRIMARY_START = 2;
+   private static final int AFTER_NOT = 1, AFTER_EXPO = 2, AFTER_MULTIPLYING = 4, AFTER_SIGN = 8,
+                            AFTER_ADDING = 16, AFTER_RELATIONAL = 32, AFTER_LOGICAL = 64;
+   // Parsing ahead is for programs of at least two tasks of at least
+   // MIN_TASK tokens; there are a few tasks per thread to even out the load
+   private static final int MIN_TASK = 4096, TASKS_PER_THREAD = 4;
+   // After a syntax error in a statement or a declaration, tokens are
+   // skipped up to one of these, or up to and including a ';'. They are
+   // the FOLLOW sets plus EOF but without identifiers, which also occur
+   // inside statements and declarations.
+   private static final long statementFollow =
+      (Grammar.follow(Grammar.STATEMENT) | 1L << Token.EOF) & ~(1L << Token.ID);
+   private static final long declarationFollow =
+      (Grammar.follow(Grammar.BASIC_DECLARATION) | 1L << Token.EOF) & ~(1L << Token.ID);
 
    public Parser(Chario c, Scanner s, int mode) {
       // save for reference later
       chario = c;
       scanner = s;
+      identifiers = s.getIdentifiers();
+      token = new TokenCursor();
       this.mode = mode;
-      initHandles();
       initTable();
       // initial token
-      token = scanner.nextToken();
+      advance();
+   }
+
+   // Parses tokens scanned in advance by TokenBuffer.scan(); the same
+   // tokens may be parsed again after reset(), in any mode.
+   public Parser(Chario c, TokenBuffer t, int mode) {
+      chario = c;
+      tokens = t;
+      identifiers = t.getIdentifiers();
+      token = new TokenCursor();
+      this.mode = mode;
+      startTokens();
+      initTable();
+      advance();
+   }
+
+   // A parser for a task of parseAhead(): it parses bodies of the tokens
+   // of outline, one at a time, with table, recording them into cache
+   private Parser(Chario c, Parser outline, SymbolTable table, ParseCache cache) {
+      chario = c;
+      tokens = outline.tokens;
+      identifiers = outline.identifiers;
+      token = new TokenCursor();
+      mode = outline.mode;
+      this.table = table;
+      this.cache = cache;
+      caching = true;
    }
 
    public void reset() {
-      scanner.reset();
+      advanced = 0;
+      lastError = -1;
+      scopes = 0;
+      blocks = 0;
+      afterEnd = false;
+      if (tokens == null)
+         scanner.reset();
+      else
+         startTokens();
       initTable();
-      token = scanner.nextToken();
-   }
-
-   private void initHandles() {
-      addingOperator = new HashSet<Integer>();
-      addingOperator.add(Token.PLUS);
-      addingOperator.add(Token.MINUS);
-      multiplyingOperator = new HashSet<Integer>();
-      multiplyingOperator.add(Token.MUL);
-      multiplyingOperator.add(Token.DIV);
-      multiplyingOperator.add(Token.MOD);
-      relationalOperator = new HashSet<Integer>();
-      relationalOperator.add(Token.EQ);
-      relationalOperator.add(Token.NE);
-      relationalOperator.add(Token.LE);
-      relationalOperator.add(Token.GE);
-      relationalOperator.add(Token.LT);
-      relationalOperator.add(Token.GT);
-      basicDeclarationHandles = new HashSet<Integer>();
-      basicDeclarationHandles.add(Token.TYPE);
-      basicDeclarationHandles.add(Token.ID);
-      basicDeclarationHandles.add(Token.PROC);
-      statementHandles = new HashSet<Integer>();
-      statementHandles.add(Token.EXIT);
-      statementHandles.add(Token.ID);
-      statementHandles.add(Token.IF);
-      statementHandles.add(Token.LOOP);
-      statementHandles.add(Token.NULL);
-      statementHandles.add(Token.WHILE);
-      leftNames = new HashSet<Integer>();                 // Name roles for targets of assignment statement
-      leftNames.add(SymbolEntry.PARAM);
-      leftNames.add(SymbolEntry.VAR);
-      rightNames = new HashSet<Integer>(leftNames);       // Name roles for names in expressions
-      rightNames.add(SymbolEntry.CONST);
+      advance();
+   }
+
+   private void startTokens() {
+      index = -1;
+      chario.startReplay(tokens.getDiagnostics());
+   }
+
+   // Moves on to the next token. From a TokenBuffer, the token's listing
+   // and lexical errors are replayed first; past EOF, EOF repeats.
+   private void advance() {
+      advanced++;
+      if (token.code == Token.END){
+         blocks--;
+         afterEnd = true;
+      }
+      else{
+         if (token.code == Token.PROC || ! afterEnd && (token.code == Token.IF || token.code == Token.LOOP))
+            blocks++;
+         afterEnd = false;
+      }
+      if (tokens == null){
+         scanner.nextToken(token);
+         return;
+      }
+      if (index < tokens.size() - 1)
+         index++;
+      token.code = tokens.code(index);
+      token.value = tokens.value(index);
+      chario.replayTo(tokens.endLine(index), tokens.endColumn(index), tokens.errors(index));
    }
 
    /*
@@ -101,15 +185,15 @@ public class Parser extends Object{
   private void acceptRole(SymbolEntry s, int expected, String errorMessage){
       if (this.mode == Parser.ROLE){
          if (s == null || (s.role != SymbolEntry.NONE && s.role != expected)){
-            chario.putError(errorMessage);
+            report(Diagnostics.ROLE, errorMessage);
          }
       }
    }
 
-   private void acceptRole(SymbolEntry s, Set<Integer> expected, String errorMessage){
+   private void acceptRole(SymbolEntry s, long expected, String errorMessage){
       if (this.mode == Parser.ROLE){
-         if (s == null || (s.role != SymbolEntry.NONE && ! (expected.contains(s.role)))){
-            chario.putError(errorMessage);
+         if (s == null || (s.role != SymbolEntry.NONE && ! Grammar.contains(expected, s.role))){
+            report(Diagnostics.ROLE, errorMessage);
          }
       }
    }
@@ -133,14 +217,76 @@ public class Parser extends Object{
    private void accept(int expected, String errorMessage) {
       if (token.code != expected)
          fatalError(errorMessage);
-      token = scanner.nextToken();
+      advance();
    }
 
-   // The call to this method would trigger a runtime exception.
+   // Reports a syntax error and unwinds to the nearest point of recovery.
+   // Only the first of the errors found at the same token is reported.
    private void fatalError(String errorMessage) {
-      // print an error message before throwing the exception
-      chario.putError(errorMessage);
-      throw new RuntimeException("Fatal error");
+      if (lastError != advanced){
+         report(Diagnostics.SYNTAX, errorMessage);
+         lastError = advanced;
+      }
+      throw SyntaxError.INSTANCE;
+   }
+
+   // Reports an error found at the current token
+   private void report(int category, String message){
+      chario.putError(category, message);
+      if (caching && cache.recording())
+         cache.addError(index, category, message);
+   }
+
+   // The message of the last error if more than errors have been reported,
+   // or null
+   private String errorSince(int errors){
+      Diagnostics diagnostics = chario.getDiagnostics();
+      return diagnostics.size() > errors ? diagnostics.message(diagnostics.size() - 1) : null;
+   }
+
+   // Skips the rest of a statement or declaration with a syntax error:
+   // first what is left of the blocks it opened, depth being the number
+   // open before it, then up to a token of follow or past the next ';'
+   private void synchronize(long follow, int depth) {
+      if (blocks > depth){
+         while (blocks > depth && token.code != Token.EOF)
+            advance();
+         // the "if" or "loop" of "end if" or "end loop"
+         if (token.code == Token.IF || token.code == Token.LOOP)
+            advance();
+      }
+      while (token.code != Token.SEMI && ! Grammar.contains(follow, token.code))
+         advance();
+      if (token.code == Token.SEMI)
+         advance();
+   }
+
+   // Building the tree; the methods do nothing without one and return
+   // SyntaxTree.NONE for a node. A node's token is the one where it
+   // starts, or for a binary operator, where its left operand does.
+   private int node(int kind){
+      return tree == null ? SyntaxTree.NONE : tree.add(kind, advanced - 1, 0);
+   }
+
+   // A leaf for the current token, before it is advanced over
+   private int leaf(){
+      return tree == null ? SyntaxTree.NONE : tree.add(token.code, advanced - 1, token.value);
+   }
+
+   // A binary operator node with left as its left operand and the current
+   // token as the operator; the right operand goes after them
+   private int binary(int kind, int left){
+      if (tree == null)
+         return SyntaxTree.NONE;
+      int node = tree.add(kind, tree.token(left), 0);
+      tree.append(node, left);
+      tree.append(node, leaf());
+      return node;
+   }
+
+   private void add(int parent, int child){
+      if (tree != null)
+         tree.append(parent, child);
    }
 
    /*
@@ -150,7 +296,7 @@ public class Parser extends Object{
    private void initTable(){
    // When it's newly created, its level is -1 and its stack is empty
       if (this.mode == Parser.ROLE || this.mode == Parser.SCOPE){
-         table = new SymbolTable(chario);
+         table = new SymbolTable(chario, identifiers);
          this.enterScope();
          // There are five predefined identifiers
          SymbolEntry entry = table.enterSymbol("BOOLEAN");
@@ -169,54 +315,187 @@ public class Parser extends Object{
    private void enterScope(){
       if (this.mode == Parser.ROLE || this.mode == Parser.SCOPE){
          table.enterScope();
+         scopes++;
       }
    }
 
    private void exitScope(){
       if (this.mode == Parser.ROLE || this.mode == Parser.SCOPE){
+         if (caching && cache.recording())
+            cache.addScope(index, table.getLevel(), table.scopeText(this.mode));
          table.exitScope(this.mode);
+         scopes--;
       }
    }
 
 // first check the token's code to determine that it is an identifier
-// If it is, register this identifier in the table and return the entry
-private SymbolEntry enterId(){
+// If it is, register this identifier in the table and return the entry;
+// its leaf goes to parent
+private SymbolEntry enterId(int parent){
    SymbolEntry entry = null;
    if (token.code == Token.ID){
+      add(parent, leaf());
       if (this.mode == Parser.SCOPE || this.mode == Parser.ROLE){
-         entry = table.enterSymbol(token.string);
+         int errors = chario.getDiagnostics().size();
+         entry = table.enterSymbol(token.value);
+         if (caching && cache.recording())
+            cache.addEnter(index, table.getLevel(), entry, token.value, errorSince(errors));
       }
    }
    else{
       fatalError("identifier expected");
    } 
-   token = scanner.nextToken();
+   advance();
    return entry;
 }
 
 // consume the next token (representing an identifier)
-// and find the corresponding entry in the table
-private SymbolEntry findId(){
+// and find the corresponding entry in the table; its leaf goes to parent
+private SymbolEntry findId(int parent){
    SymbolEntry entry = null;
    if (token.code == Token.ID){
+      add(parent, leaf());
       if (this.mode == Parser.SCOPE || this.mode == Parser.ROLE){
-         entry = table.findSymbol(token.string);
+         int errors = chario.getDiagnostics().size();
+         entry = table.findSymbol(token.value);
+         if (caching && cache.recording()){
+            cache.addDependency(token.value, entry);
+            if (entry == null)
+               cache.addError(index, Diagnostics.SCOPE, errorSince(errors));
+         }
       }
    }
    else{
       fatalError("identifier expected");
    }
-   token = scanner.nextToken();
+   advance();
    return entry;
 }
 
    // the beginning of parsing process
-   // this method will either return normally or throw an exception
-   // if the first syntax error is encountered
+   // syntax errors are reported as they are found; parsing stops early
+   // only if one of them cannot be recovered from
    public void parse(){
-      subprogramBody();
-      accept(Token.EOF, "extra symbols after logical end of program");
-      this.exitScope();
+      long started = 0;
+      if (CompileStats.ENABLED){
+         if (scanner != null)
+            scanner.publishStats();
+         started = System.nanoTime();
+      }
+      try{
+         if (tableDriven)
+            parseTable();
+         else{
+            if (tree != null)
+               tree.clear();
+            caching = cache != null && tokens != null && tree == null;
+            if (caching){
+               cache.startParse(mode, identifiers, tokens);
+               if (pool != null && tokens.size() >= 2 * MIN_TASK)
+                  parseAhead();
+            }
+            try{
+               int body = subprogramBody();
+               if (tree != null)
+                  tree.setRoot(body);
+               accept(Token.EOF, "extra symbols after logical end of program");
+            }catch(SyntaxError e){
+               // outside of any statement or declaration, nothing to go on
+               // with; the tree keeps what was built of the procedure, which
+               // is the first node
+               if (tree != null && tree.size() > 0)
+                  tree.setRoot(0);
+            }finally{
+               if (caching)
+                  cache.endParse();
+            }
+            this.exitScope();
+         }
+      }finally{
+         if (CompileStats.ENABLED){
+            // scanning while parsing is not parse time
+            long scanning = scanner == null ? 0 : scanner.publishStats();
+            CompileStats.addParse(System.nanoTime() - started - scanning);
+         }
+      }
+   }
+
+   // Makes parse() build a syntax tree into tree, or none if it is null.
+   // The tree holds the program as far as it is free of syntax errors:
+   // statements and declarations with errors are left out. The table-
+   // driven engine builds no tree.
+   public void setSyntaxTree(SyntaxTree tree){
+      this.tree = tree;
+   }
+
+   // Makes parse() replay the procedure bodies cache holds from an earlier
+   // parse where their tokens are the same, and save those it parses, or
+   // parse all if it is null. Only for tokens from a TokenBuffer, and not
+   // while building a syntax tree.
+   public void setParseCache(ParseCache cache){
+      this.cache = cache;
+   }
+
+   // Makes parse() parse the procedure bodies nested in the program on
+   // pool first and then replay them, as from a ParseCache: the one set
+   // or one of its own. Small programs are parsed as they are. The same
+   // conditions as for a cache apply.
+   public void setParallel(ForkJoinPool pool){
+      this.pool = pool;
+      if (pool != null && cache == null)
+         cache = new ParseCache();
+   }
+
+   // Makes parse() use the table-driven LL(1) engine, which only checks
+   // the syntax, so the mode must be NONE
+   public void setTableDriven(boolean on){
+      if (on && mode != NONE)
+         throw new IllegalArgumentException("the table-driven parser only checks syntax");
+      tableDriven = on;
+   }
+
+   // The table-driven engine: the symbols still expected are on a stack,
+   // and Grammar's LL(1) table says how to expand the nonterminal on top.
+   // It finds the same errors as the methods below: the rest of the
+   // statement or declaration being parsed lies above the MORE_STATEMENTS
+   // or MORE_DECLARATIONS that stands for those after it, and recovery
+   // drops that rest and skips tokens as the methods do. Beside each
+   // symbol is the number of blocks open when it was pushed.
+   private void parseTable(){
+      int[] stack = new int[64], depths = new int[64];
+      int top = 0;
+      stack[top++] = Grammar.PROGRAM;
+      while (top > 0){
+         try{
+            int symbol = stack[--top];
+            if (symbol < Grammar.NONTERMINAL){
+               if (token.code != symbol)
+                  fatalError(Grammar.expected(symbol));
+               advance();
+               continue;
+            }
+            int production = Grammar.predict(symbol, token.code);
+            if (production < 0)
+               fatalError(Grammar.error(symbol));
+            int[] symbols = Grammar.rhs(production);
+            if (top + symbols.length > stack.length){
+               stack = Arrays.copyOf(stack, 2 * (top + symbols.length));
+               depths = Arrays.copyOf(depths, stack.length);
+            }
+            for (int i = symbols.length - 1; i >= 0; i--){
+               depths[top] = blocks;
+               stack[top++] = symbols[i];
+            }
+         }catch(SyntaxError e){
+            while (top > 0 && stack[top - 1] != Grammar.MORE_STATEMENTS &&
+                   stack[top - 1] != Grammar.MORE_DECLARATIONS)
+               top--;
+            if (top == 0)
+               return;
+            synchronize(stack[top - 1] == Grammar.MORE_STATEMENTS ? statementFollow : declarationFollow,
+                        depths[top - 1]);
+         }
+      }
    }
 
    // each parsing method assumes the parser's token variable
@@ -232,107 +511,297 @@ private SymbolEntry findId(){
          "begin" sequenceOfStatements
          "end" [ <procedure>identifier ] ";"
    */
-   private void subprogramBody(){
-      subprogramSpecification();
-      accept(Token.IS, "'is' expected");
-      declarativePart();
-      accept(Token.BEGIN, "'begin' expected");
-      sequenceOfStatements();
-      accept(Token.END, "'end' expected");
-      this.exitScope();
-      // the identifier here is optional, so we need to check first
-      if (token.code == Token.ID){
-         SymbolEntry entry = findId();
-         acceptRole(entry, SymbolEntry.PROC, "must be a procedure name");
+   private int subprogramBody(){
+      int outerScopes = scopes;
+      int node = node(Grammar.SUBPROGRAM_BODY);
+      // a body the cache can hold is replayed from it or recorded into it
+      int end = caching ? cache.bodyEnd(index) : -1;
+      if (end >= 0){
+         long key = cache.key(index);
+         if (replayBody(key, end))
+            return node;
+         cache.startBody(key, index, end, table == null ? 0 : table.getLevel(), blocks);
       }
-      accept(Token.SEMI, "';' expected");
+      boolean complete = false;
+      try{
+         add(node, subprogramSpecification());
+         accept(Token.IS, "'is' expected");
+         add(node, declarativePart());
+         accept(Token.BEGIN, "'begin' expected");
+         add(node, sequenceOfStatements());
+         accept(Token.END, "'end' expected");
+         this.exitScope();
+         // the identifier here is optional, so we need to check first
+         if (token.code == Token.ID){
+            SymbolEntry entry = findId(node);
+            acceptRole(entry, SymbolEntry.PROC, "must be a procedure name");
+         }
+         accept(Token.SEMI, "';' expected");
+         complete = true;
+      }catch(SyntaxError e){
+         // close the scope of a procedure broken off by the error
+         while (scopes > outerScopes)
+            this.exitScope();
+         throw e;
+      }finally{
+         if (end >= 0)
+            cache.endBody(complete, index, blocks);
+      }
+      return node;
+   }
+
+   // Replays the body up to token end from the cache and moves on to that
+   // token, if the cache has it
+   private boolean replayBody(long key, int end){
+      int change = cache.replay(key, index, end, chario, tokens, table);
+      if (change == ParseCache.MISS)
+         return false;
+      int open = blocks + change;
+      advanced += end - 1 - index;
+      index = end - 1;
+      token.code = tokens.code(index);
+      advance();
+      blocks = open;
+      return true;
+   }
+
+   // Fills the cache with the nested bodies of the program, parsed on
+   // pool. An outline of the program is parsed first, with diagnostics
+   // going nowhere: the bodies of up to grain tokens are skipped, their
+   // names only entered, and at the end of each declarative part they are
+   // parsed by tasks. Each task sees the symbol table of the outline as
+   // it is then, without the names of its own bodies, which it enters
+   // itself. parse() then replays their errors and scopes in source
+   // order, if the names they use from outside are still the same.
+   private void parseAhead(){
+      Parser outline = new Parser(new QuietChario(), tokens, mode);
+      outline.cache = cache;
+      outline.pool = pool;
+      outline.ahead = true;
+      outline.grain = Math.max(MIN_TASK, tokens.size() / (TASKS_PER_THREAD * pool.getParallelism()));
+      try{
+         outline.subprogramBody();
+      }catch(SyntaxError e){}
+   }
+
+   // Leaves the body at the current token to a task, unless it has more
+   // than grain tokens, no end or no name: enters its name as
+   // subprogramSpecification() does and moves on to the token after it.
+   // A body already in the cache is left to it.
+   private boolean skipBody(List<BodiesTask> tasks){
+      int start = index, end = cache.bodyEnd(index);
+      if (end < 0 || end - start > grain || tokens.code(start + 1) != Token.ID)
+         return false;
+      int open = blocks;
+      advance();
+      SymbolEntry entry = enterId(SyntaxTree.NONE);
+      this.setRole(entry, SymbolEntry.PROC);
+      advanced += end - 1 - index;
+      index = end - 1;
+      token.code = tokens.code(index);
+      advance();
+      blocks = open;
+      if (! cache.contains(cache.key(start))){
+         BodiesTask task = tasks.isEmpty() ? null : tasks.get(tasks.size() - 1);
+         if (task == null || task.size >= grain){
+            task = new BodiesTask(this, cache.fork());
+            tasks.add(task);
+         }
+         task.add(start, end, entry);
+      }
+      return true;
+   }
+
+   // Runs the tasks and keeps the bodies they parsed; the symbol table
+   // stays as it is meanwhile
+   private void runTasks(List<BodiesTask> tasks){
+      for (Future<ParseCache> result : pool.invokeAll(tasks)){
+         try{
+            cache.join(result.get());
+         }catch(InterruptedException e){
+            throw new RuntimeException(e);
+         }catch(ExecutionException e){
+            throw new RuntimeException(e.getCause());
+         }
+      }
+   }
+
+   // Parses the body that starts at token start, for a task
+   private void parseBody(int start){
+      index = start;
+      token.code = tokens.code(index);
+      token.value = tokens.value(index);
+      afterEnd = false;
+      try{
+         subprogramBody();
+      }catch(SyntaxError e){}
+   }
+
+   // Bodies an outline skipped, to be parsed in order into a cache of
+   // their own
+   private static class BodiesTask implements Callable<ParseCache>{
+
+      private Parser outline;
+      private ParseCache cache;
+      private List<Integer> starts;
+      // the names the outline entered for the bodies
+      private Set<SymbolEntry> names;
+      private int size;
+
+      public BodiesTask(Parser outline, ParseCache cache){
+         this.outline = outline;
+         this.cache = cache;
+         starts = new ArrayList<Integer>();
+         names = new HashSet<SymbolEntry>();
+      }
+
+      public void add(int start, int end, SymbolEntry name){
+         starts.add(start);
+         if (name != null)
+            names.add(name);
+         size += end - start;
+      }
+
+      public ParseCache call(){
+         Chario chario = new QuietChario();
+         SymbolTable table = outline.table == null ? null : new SymbolTable(chario, outline.table, names);
+         Parser parser = new Parser(chario, outline, table, cache);
+         for (int start : starts)
+            parser.parseBody(start);
+         return cache;
+      }
+
+   }
+
+   // Diagnostics for the outline and the tasks, which go nowhere: they
+   // are reported when their bodies are replayed
+   private static class QuietChario extends Chario{
+
+      public QuietChario(){
+         super(new NullSink());
+      }
+
+      public void startReplay(Diagnostics errors){}
+
+      public void replayTo(int line, int column, int errors){}
+
+      public void putError(int category, String message){
+         getDiagnostics().add(0, 0, category, message);
+      }
+
    }
 
    /*
    subprogramSpecification = "procedure" identifier [ formalPart ]
    */
    // wrote by xizma
-   private void subprogramSpecification(){
+   private int subprogramSpecification(){
+      int node = node(Grammar.SUBPROGRAM_SPECIFICATION);
       // "procedure" is a keyword, not an identifier
       accept(Token.PROC, "'procedure' expected");
-      SymbolEntry entry = enterId();
+      // whether the name can be entered depends on what it was before
+      if (caching && cache.recording() && table != null && token.code == Token.ID)
+         cache.addDependency(token.value, table.lookup(token.value));
+      SymbolEntry entry = enterId(node);
       this.setRole(entry, SymbolEntry.PROC);
       this.enterScope();
       if(token.code == Token.L_PAR){
-         formalPart();
+         add(node, formalPart());
       }
+      return node;
    }
    /*
    formalPart = "(" parameterSpecification { ";" parameterSpecification } ")"
    */
    // wrote by xizma
-   private void formalPart(){
+   private int formalPart(){
+      int node = node(Grammar.FORMAL_PART);
       accept(Token.L_PAR, "'(' expected");
-      parameterSpecification();
+      add(node, parameterSpecification());
       while(token.code == Token.SEMI){
-         token = scanner.nextToken();
-         parameterSpecification();
+         advance();
+         add(node, parameterSpecification());
       }
       accept(Token.R_PAR, "')' expected");
+      return node;
    }
    /*
    parameterSpecification = identifierList ":" mode <type>identifier
    */
    // wrote by xizma
-   private void parameterSpecification(){
-      SymbolEntry list = identifierList();
+   private int parameterSpecification(){
+      int node = node(Grammar.PARAMETER_SPECIFICATION);
+      SymbolEntry list = identifierList(node);
       this.setRole(list, SymbolEntry.PARAM);
       accept(Token.COLON, "':' expected");
-      mode();
-      SymbolEntry entry = findId();
+      add(node, mode());
+      SymbolEntry entry = findId(node);
       acceptRole(entry, SymbolEntry.TYPE, "must be a type name");
+      return node;
    }
 
    /*
    mode = [ "in" ] | "in" "out" | "out"
    */
    // wrote by xizma
-   private void mode(){
+   private int mode(){
+      int node = node(Grammar.MODE);
       // it could be "in", "in out", "out" or nothing
       if(token.code == Token.IN){
-         token = scanner.nextToken();
+         add(node, leaf());
+         advance();
          if(token.code == Token.OUT){
-            token = scanner.nextToken();
+            add(node, leaf());
+            advance();
          }
       }
       else if(token.code == Token.OUT){
-         token = scanner.nextToken();
+         add(node, leaf());
+         advance();
       }
+      return node;
    }
    /*
    declarativePart = { basicDeclaration }
    */
-   private void declarativePart(){
+   private int declarativePart(){
+      int node = node(Grammar.DECLARATIVE_PART);
+      // the bodies an outline leaves to tasks
+      List<BodiesTask> tasks = ahead ? new ArrayList<BodiesTask>() : null;
       // recall that basicDeclarationHandles is a set
-      while (basicDeclarationHandles.contains(token.code))
-         basicDeclaration();
+      while (Grammar.contains(basicDeclarationHandles, token.code)){
+         int depth = blocks;
+         try{
+            if (tasks != null && token.code == Token.PROC && skipBody(tasks))
+               continue;
+            add(node, basicDeclaration());
+         }catch(SyntaxError e){
+            synchronize(declarationFollow, depth);
+         }
+      }
+      if (tasks != null)
+         runTasks(tasks);
+      return node;
    }
 
    /*
    basicDeclaration = objectDeclaration | numberDeclaration
                     | typeDeclaration | subprogramBody   
    */
-   private void basicDeclaration(){
+   private int basicDeclaration(){
       // Divide the case into several non-overlapping subcases
       // Since first(objectDeclaration) overlaps with first(numberDeclaration),
       // we collect them into a single procedure.
       switch (token.code){
          case Token.ID:
-            numberOrObjectDeclaration();
-            break;
+            return numberOrObjectDeclaration();
          case Token.TYPE:
-            typeDeclaration();
-            break;
+            return typeDeclaration();
          case Token.PROC:
-            subprogramBody();
-            break;
+            return subprogramBody();
          default: fatalError("error in declaration part");
       }
+      return SyntaxTree.NONE;
    }
 
    /*
@@ -342,40 +811,45 @@ private SymbolEntry findId(){
    numberDeclaration =
          identifierList ":" "constant" ":=" <static>expression ";"
    */
-   private void numberOrObjectDeclaration(){
-      SymbolEntry list = identifierList();
+   private int numberOrObjectDeclaration(){
+      int node = node(Grammar.NUMBER_OR_OBJECT_DECLARATION);
+      SymbolEntry list = identifierList(node);
       accept(Token.COLON, "':' expected");
       if (token.code == Token.CONST){
          this.setRole(list, SymbolEntry.CONST);
-         token = scanner.nextToken();
+         add(node, leaf());
+         advance();
          accept(Token.GETS, "':=' expected");
-         expression();
+         add(node, expression());
       }
       else{
          this.setRole(list, SymbolEntry.VAR);
-         typeDefinition();
+         typeDefinition(node);
       }
       accept(Token.SEMI, "';' expected");
+      return node;
    }
 
    /*
    typeDeclaration = "type" identifier "is" typeDefinition ";"
    */
    // wrote by xizma
-   private void typeDeclaration(){
+   private int typeDeclaration(){
+      int node = node(Grammar.TYPE_DECLARATION);
       accept(Token.TYPE, "'type' expected");
-      SymbolEntry entry = enterId();
+      SymbolEntry entry = enterId(node);
       this.setRole(entry, SymbolEntry.TYPE);
       accept(Token.IS, "'is' expected");
-      typeDefinition();
+      typeDefinition(node);
       accept(Token.SEMI, "';' expected");
+      return node;
    }
    /*
    typeDefinition = enumerationTypeDefinition | arrayTypeDefinition
                   | range | <type>identifier
    */
    // wrote by xizma
-   private void typeDefinition(){
+   private void typeDefinition(int parent){
       // enumerationTypeDefinition starts with "("
       // arrayTypeDefinition starts with "array"
       // range starts with "range "
@@ -383,16 +857,16 @@ private SymbolEntry findId(){
       // they don't overlap with each other
       switch (token.code) {
          case Token.L_PAR:
-            enumerationTypeDefinition();
+            add(parent, enumerationTypeDefinition());
             break;
          case Token.ARRAY:
-            arrayTypeDefinition();
+            add(parent, arrayTypeDefinition());
             break;
          case Token.RANGE:
-            range();
+            add(parent, range());
             break;
          case Token.ID:
-            SymbolEntry entry = findId();
+            SymbolEntry entry = findId(parent);
             acceptRole(entry, SymbolEntry.TYPE, "must be a type name");
             break;
          default:
@@ -405,45 +879,49 @@ private SymbolEntry findId(){
    enumerationTypeDefinition = "(" identifierList ")"
    */
    // wrote by xizma
-   private void enumerationTypeDefinition(){
+   private int enumerationTypeDefinition(){
+      int node = node(Grammar.ENUMERATION_TYPE_DEFINITION);
       accept(Token.L_PAR, "'(' expected");
-      SymbolEntry list = identifierList();
+      SymbolEntry list = identifierList(node);
       // All of the IDs here should be constants
       this.setRole(list, SymbolEntry.CONST);
       accept(Token.R_PAR, "')' expected");
+      return node;
    }
 
    /*
    arrayTypeDefinition = "array" "(" index { "," index } ")" "of" <type>identifier
    */
    // wrote by xizma
-   private void arrayTypeDefinition(){
+   private int arrayTypeDefinition(){
+      int node = node(Grammar.ARRAY_TYPE_DEFINITION);
       accept(Token.ARRAY, "'array' expected");
       accept(Token.L_PAR, "'(' expected");
-      index();
+      index(node);
       while(token.code == Token.COMMA){
-         token = scanner.nextToken();
-         index();
+         advance();
+         index(node);
       }
       accept(Token.R_PAR, "')' expected");
       accept(Token.OF, "'of' expected");
-      SymbolEntry entry = findId();
+      SymbolEntry entry = findId(node);
       acceptRole(entry, SymbolEntry.TYPE, "must be a type name");
+      return node;
    }
 
    /*
    index = range | <type>identifier
    */
    // wrote by xizma
-   private void index(){
+   private void index(int parent){
       // range starts with "range "
       // name starts with identifier
       // their token codes are different
       if(token.code == Token.RANGE){
-         range();
+         add(parent, range());
       }
       else if(token.code == Token.ID){
-         SymbolEntry entry = findId();
+         SymbolEntry entry = findId(parent);
          acceptRole(entry, SymbolEntry.TYPE, "must be a type name");
       }
       else{
@@ -455,34 +933,45 @@ private SymbolEntry findId(){
    range = "range " simpleExpression ".." simpleExpression
    */
    // wrote by xizma
-   private void range(){
+   private int range(){
+      int node = node(Grammar.RANGE);
       accept(Token.RANGE, "'range' expected");
-      simpleExpression();
+      add(node, simpleExpression());
       accept(Token.THRU, "'..' expected");
-      simpleExpression();
+      add(node, simpleExpression());
+      return node;
    }
 
    /*
    identifierList = identifier { "," identifer }
    */
   // wrote by xizma
-   private SymbolEntry identifierList(){
+   private SymbolEntry identifierList(int parent){
+      int node = node(Grammar.IDENTIFIER_LIST);
       // this method gets called every time a kind of declaration happens
-      SymbolEntry list = enterId();
+      SymbolEntry list = enterId(node);
       while(token.code == Token.COMMA){
-         token = scanner.nextToken();
-         this.appendEntry(list, enterId());
+         advance();
+         this.appendEntry(list, enterId(node));
       }
+      add(parent, node);
       return list;
    }
 
    /*
    sequenceOfStatements = statement { statement }
    */
-   private void sequenceOfStatements(){
-      statement();
-      while (statementHandles.contains(token.code))
-         statement();
+   private int sequenceOfStatements(){
+      int node = node(Grammar.SEQUENCE_OF_STATEMENTS);
+      do{
+         int depth = blocks;
+         try{
+            add(node, statement());
+         }catch(SyntaxError e){
+            synchronize(statementFollow, depth);
+         }
+      }while (Grammar.contains(statementHandles, token.code));
+      return node;
    }
 
    /*
@@ -493,35 +982,33 @@ private SymbolEntry findId(){
 
    compoundStatement = ifStatement | loopStatement
    */
-   private void statement(){
+   private int statement(){
       switch (token.code){
          case Token.ID:
-            assignmentOrCallStatement();
-            break;
+            return assignmentOrCallStatement();
          case Token.EXIT:
-            exitStatement();
-            break;
+            return exitStatement();
          case Token.IF:
-            ifStatement();
-            break;
+            return ifStatement();
          case Token.NULL:
-            nullStatement();
-            break;
+            return nullStatement();
          case Token.WHILE:
          case Token.LOOP:
-            loopStatement();
-            break;
+            return loopStatement();
          default: fatalError("error in statement");
       }
+      return SyntaxTree.NONE;
    }
 
    /*
    nullStatement = "null" ";"
    */
   // wrote by xizma
-   private void nullStatement(){
+   private int nullStatement(){
+      int node = node(Grammar.NULL_STATEMENT);
       accept(Token.NULL, "'null' expected");
       accept(Token.SEMI, "';' expected");
+      return node;
    }
 
    /*
@@ -531,23 +1018,27 @@ private SymbolEntry findId(){
    iterationScheme = "while" condition
    */
    // wrote by xizma
-   private void loopStatement(){
+   private int loopStatement(){
+      int node = node(Grammar.LOOP_STATEMENT);
       // iterationScheme begins with "while"
       if(token.code == Token.WHILE){
-         iterationScheme();
+         add(node, iterationScheme());
       }
 
       accept(Token.LOOP, "'loop' expected");
-      sequenceOfStatements();
+      add(node, sequenceOfStatements());
       accept(Token.END, "'end' expected");
       accept(Token.LOOP, "'loop' expected");
       accept(Token.SEMI, "';' expected");
+      return node;
    }
 
    // wrote by xizma
-   private void iterationScheme(){
+   private int iterationScheme(){
+      int node = node(Grammar.ITERATION_SCHEME);
       accept(Token.WHILE, "'while' expected");
-      condition();
+      add(node, condition());
+      return node;
    }
    /*
    ifStatement =
@@ -557,38 +1048,44 @@ private SymbolEntry findId(){
          "end" "if" ";"
    */
    // wrote by xizma
-   private void ifStatement(){
+   private int ifStatement(){
+      int node = node(Grammar.IF_STATEMENT);
       accept(Token.IF, "'if' expected");
-      condition();
+      add(node, condition());
       accept(Token.THEN, "'then' expected");
-      sequenceOfStatements();
+      add(node, sequenceOfStatements());
       while(token.code == Token.ELSIF){
-         token = scanner.nextToken();
-         condition();
+         add(node, leaf());
+         advance();
+         add(node, condition());
          accept(Token.THEN, "'then' expected");
-         sequenceOfStatements();
+         add(node, sequenceOfStatements());
       }
 
       if(token.code == Token.ELSE){
-         token = scanner.nextToken();
-         sequenceOfStatements();
+         add(node, leaf());
+         advance();
+         add(node, sequenceOfStatements());
       }
 
       accept(Token.END, "'end' expected");
       accept(Token.IF, "'if' expected");
       accept(Token.SEMI, "';' expected");
+      return node;
    }
    /*
    exitStatement = "exit" [ "when" condition ] ";"
    */
    // wrote by xizma
-   private void exitStatement(){
+   private int exitStatement(){
+      int node = node(Grammar.EXIT_STATEMENT);
       accept(Token.EXIT, "'exit' expected");
       if(token.code == Token.WHEN){
-         token = scanner.nextToken();
-         condition();
+         advance();
+         add(node, condition());
       }
       accept(Token.SEMI, "';' expected");
+      return node;
    }
 
    /*
@@ -599,19 +1096,24 @@ private SymbolEntry findId(){
    modified as demanded: procedureCallStatement = <procedure>name ";"
    */
    // modified by xizma
-   private void assignmentOrCallStatement(){
-      SymbolEntry entry = name();
+   private int assignmentOrCallStatement(){
+      int node = node(Grammar.ASSIGNMENT_OR_CALL_STATEMENT);
+      int target = node(Grammar.NAME);
+      SymbolEntry entry = name(target);
+      add(node, target);
       if (token.code == Token.GETS){
          // it is an assignmentStatement
-         acceptRole(entry, this.leftNames, "must be a parameter or variable name");
-         token = scanner.nextToken();
-         expression();
+         acceptRole(entry, leftNames, "must be a parameter or variable name");
+         add(node, leaf());
+         advance();
+         add(node, expression());
       }
       else{
          // it is a procedureCallStatement
          acceptRole(entry, SymbolEntry.PROC, "must be a procedure name");
       }
       accept(Token.SEMI, "';' expected");
+      return node;
    }
 
    /*
@@ -622,7 +1124,7 @@ private SymbolEntry findId(){
    //    accept(Token.L_PAR, "left parenthesis expected");
    //    expression();
    //    while(token.code == Token.COMMA){
-   //       token = scanner.nextToken();
+   //       advance();
    //       expression();
    //    }
    //    accept(Token.R_PAR, "right parenthesis expected");
@@ -631,139 +1133,250 @@ private SymbolEntry findId(){
    /*
    condition = <boolean>expression
    */
-   private void condition(){
-      expression();
+   private int condition(){
+      return expression();
    }
 
    /*
    expression = relation [{ "and" relation } | { "or" relation }]
-   */
-   private void expression(){
-      relation();
-      if(token.code == Token.AND){
-         while(token.code == Token.AND){
-            token = scanner.nextToken();
-            relation();
-         }
-      }
-      else if(token.code == Token.OR){
-         while(token.code == Token.OR){
-            token = scanner.nextToken();
-            relation();
-         }
-      }
-   }
 
-   /*
    relation = simpleExpression [ relationalOperator simpleExpression ]
-   */
-   // wrote by xizma
-   private void relation(){
-      simpleExpression();
-      if(relationalOperator.contains(token.code)){
-         token = scanner.nextToken();
-         simpleExpression();
-      }
-   }
 
-   /*
    simpleExpression =
          [ unaryAddingOperator ] term { binaryAddingOperator term }
-   */
-   private void simpleExpression(){
-      if (addingOperator.contains(token.code))
-         token = scanner.nextToken();
-      term();
-      while (addingOperator.contains(token.code)){
-         token = scanner.nextToken();
-         term();
-      }
-   }
 
-   /*
    term = factor { multiplyingOperator factor }
-   */
-   // wrote by xizma
-   private void term(){
-      factor();
-      while(multiplyingOperator.contains(token.code)){
-         token = scanner.nextToken();
-         factor();
-      }
-   }
 
-   /*
    factor = primary [ "**" primary ] | "not" primary
+
+   primary = numericLiteral | stringLiteral | name | "(" expression ")"
    */
-   // wrote by xizma
-   private void factor(){
-      if (token.code == Token.NOT){
-         token = scanner.nextToken();
-         primary();
-      }
-      else{
-         primary();
-         if(token.code == Token.EXPO){
-            token = scanner.nextToken();
-            primary();
+   // Expressions are parsed by climbing the precedence levels above
+   // without recursion, so that their nesting is limited by the heap and
+   // not by the thread's stack. The operators still waiting for their
+   // right operand are on the waiting stack, lowest level at the bottom,
+   // and pending has a bit for each of them.
+   // A parenthesized expression or index list opens a frame: the state of
+   // the enclosing one is pushed onto the stack after its operators.
+   private int expression(){
+      return expression(false);
+   }
+
+   private int simpleExpression(){
+      return expression(true);
+   }
+
+   // only a simple expression if simple
+   private int expression(boolean simple){
+      // the frame: what it is, its pending operators, the logical operator
+      // it goes on with once it has one, else -1, and for an index list,
+      // the name
+      int frame = simple ? SIMPLE_FRAME : EXPRESSION_FRAME;
+      int pending = 0, logical = -1, nameNode = SyntaxTree.NONE, indexNode = SyntaxTree.NONE;
+      SymbolEntry entry = null;
+      // what the next operand may begin with
+      int start = SIMPLE_START;
+      waitingTop = 0;
+      operands:
+      while (true){
+         if (start == SIMPLE_START && Grammar.contains(addingOperator, token.code)){
+            int node = node(Grammar.SIGN);
+            add(node, leaf());
+            advance();
+            waiting(node);
+            pending |= AFTER_SIGN;
+         }
+         if (start != PRIMARY_START && token.code == Token.NOT){
+            int node = node(Grammar.FACTOR);
+            add(node, leaf());
+            advance();
+            waiting(node);
+            pending |= AFTER_NOT;
+         }
+         int value = SyntaxTree.NONE;
+         switch (token.code){
+            case Token.INT:
+            case Token.CHAR:
+               value = leaf();
+               advance();
+               break;
+            case Token.ID:
+               int node = node(Grammar.NAME);
+               SymbolEntry found = findId(node);
+               if (token.code == Token.L_PAR){
+                  // name = identifier indexedComponent
+                  // indexedComponent = "(" expression  { "," expression } ")"
+                  openFrame(frame, pending, logical, nameNode, indexNode, entry);
+                  frame = INDEX_FRAME;
+                  nameNode = node;
+                  entry = found;
+                  indexNode = node(Grammar.INDEXED_COMPONENT);
+                  advance();
+                  pending = 0;
+                  logical = -1;
+                  start = SIMPLE_START;
+                  continue operands;
+               }
+               acceptRole(found, rightNames, "must be a parameter, variable or constant name");
+               value = node;
+               break;
+            case Token.L_PAR:
+               advance();
+               // the parentheses only group, the tree shows that already
+               openFrame(frame, pending, logical, nameNode, indexNode, entry);
+               frame = PARENS_FRAME;
+               pending = 0;
+               logical = -1;
+               start = SIMPLE_START;
+               continue operands;
+            default: fatalError("error in primary");
+         }
+         // value is a primary; complete the operators before it and take
+         // the one after it, if any
+         while (true){
+            if ((pending & (AFTER_NOT | AFTER_EXPO)) != 0){
+               value = operand(value);
+               pending &= ~(AFTER_NOT | AFTER_EXPO);
+            }
+            else if (token.code == Token.EXPO){
+               waiting(binary(Grammar.FACTOR, value));
+               advance();
+               pending |= AFTER_EXPO;
+               start = PRIMARY_START;
+               continue operands;
+            }
+            // a factor
+            if ((pending & AFTER_MULTIPLYING) != 0){
+               value = operand(value);
+               pending &= ~AFTER_MULTIPLYING;
+            }
+            if (Grammar.contains(multiplyingOperator, token.code)){
+               waiting(binary(Grammar.TERM, value));
+               advance();
+               pending |= AFTER_MULTIPLYING;
+               start = FACTOR_START;
+               continue operands;
+            }
+            // a term
+            if ((pending & (AFTER_SIGN | AFTER_ADDING)) != 0){
+               value = operand(value);
+               pending &= ~(AFTER_SIGN | AFTER_ADDING);
+            }
+            if (Grammar.contains(addingOperator, token.code)){
+               waiting(binary(Grammar.SIMPLE_EXPRESSION, value));
+               advance();
+               pending |= AFTER_ADDING;
+               start = FACTOR_START;
+               continue operands;
+            }
+            // a simple expression
+            if (frame != SIMPLE_FRAME){
+               if ((pending & AFTER_RELATIONAL) != 0){
+                  value = operand(value);
+                  pending &= ~AFTER_RELATIONAL;
+               }
+               else if (Grammar.contains(relationalOperator, token.code)){
+                  waiting(binary(Grammar.RELATION, value));
+                  advance();
+                  pending |= AFTER_RELATIONAL;
+                  start = SIMPLE_START;
+                  continue operands;
+               }
+               // a relation
+               if ((pending & AFTER_LOGICAL) != 0){
+                  value = operand(value);
+                  pending &= ~AFTER_LOGICAL;
+               }
+               // "and" and "or" do not mix
+               if (logical < 0 ? token.code == Token.AND || token.code == Token.OR : token.code == logical){
+                  logical = token.code;
+                  waiting(binary(Grammar.EXPRESSION, value));
+                  advance();
+                  pending |= AFTER_LOGICAL;
+                  start = SIMPLE_START;
+                  continue operands;
+               }
+            }
+            // the expression of the frame
+            if (frame == EXPRESSION_FRAME || frame == SIMPLE_FRAME)
+               return value;
+            if (frame == PARENS_FRAME)
+               accept(Token.R_PAR, "')' expected");
+            else{
+               add(indexNode, value);
+               if (token.code == Token.COMMA){
+                  advance();
+                  pending = 0;
+                  logical = -1;
+                  start = SIMPLE_START;
+                  continue operands;
+               }
+               accept(Token.R_PAR, "')' expected");
+               add(nameNode, indexNode);
+               acceptRole(entry, rightNames, "must be a parameter, variable or constant name");
+               value = nameNode;
+            }
+            // back to the enclosing frame, where value is a primary
+            entry = entries[waitingTop - 1];
+            frame = waitingStack[--waitingTop];
+            pending = waitingStack[--waitingTop];
+            logical = waitingStack[--waitingTop];
+            nameNode = waitingStack[--waitingTop];
+            indexNode = waitingStack[--waitingTop];
          }
       }
-      // primary();
-      // there are three possibilities: nothing, "**" and "not"
-      // if(token.code == Token.EXPO){
-      //    token = scanner.nextToken();
-      //    primary();
-      // }
-      // else if(token.code == Token.NOT){
-      //    token = scanner.nextToken();
-      //    primary();
-      // }
    }
 
-   /*
-   primary = numericLiteral | stringLiteral | name | "(" expression ")"
-   */
-   void primary(){
-      switch (token.code){
-         case Token.INT:
-         case Token.CHAR:
-            token = scanner.nextToken();
-            break;
-         case Token.ID:
-            SymbolEntry entry = name();
-            acceptRole(entry, this.rightNames, "must be a parameter, variable or constant name");
-            break;
-         case Token.L_PAR:
-            token = scanner.nextToken();
-            expression();
-            accept(Token.R_PAR, "')' expected");
-            break;
-         default: fatalError("error in primary");
+   // Pushes node, an operator waiting for its right operand
+   private void waiting(int node){
+      if (waitingTop == waitingStack.length){
+         waitingStack = Arrays.copyOf(waitingStack, 2 * waitingTop);
+         entries = Arrays.copyOf(entries, waitingStack.length);
       }
+      waitingStack[waitingTop++] = node;
+   }
+
+   // Pops the operator on top and gives it its right operand
+   private int operand(int value){
+      int node = waitingStack[--waitingTop];
+      add(node, value);
+      return node;
+   }
+
+   // Pushes the state of a frame before a new one is opened
+   private void openFrame(int frame, int pending, int logical, int nameNode, int indexNode, SymbolEntry entry){
+      waiting(indexNode);
+      waiting(nameNode);
+      waiting(logical);
+      waiting(pending);
+      waiting(frame);
+      entries[waitingTop - 1] = entry;
    }
 
    /*
    name = identifier [ indexedComponent ]
    */
-   private SymbolEntry name(){
-      SymbolEntry entry = findId();
+   // node is the NAME node to fill
+   private SymbolEntry name(int node){
+      SymbolEntry entry = findId(node);
       if (token.code == Token.L_PAR)
-         indexedComponent();
+         add(node, indexedComponent());
       return entry;
    }
 
    /*
    indexedComponent = "(" expression  { "," expression } ")"
    */
-   private void indexedComponent(){
+   private int indexedComponent(){
+      int node = node(Grammar.INDEXED_COMPONENT);
       accept(Token.L_PAR, "'(' expected");
-      expression();
+      add(node, expression());
       while(token.code == Token.COMMA){
-         token = scanner.nextToken();
-         expression();
+         advance();
+         add(node, expression());
       }
       accept(Token.R_PAR, "')' expected");
-      
+      return node;
    }
 
 }
@@ -1,242 +1,504 @@
-import java.awt.*;
 import java.util.*;
 
 public class Scanner extends Object{
 
-   private Token token;
-   private StringBuffer tokenBuffer;
-   private Map<String, Token> keywords;
-   private Map<String, Token> singleOps;
-   private Map<String, Token> doubleOps;
+   // The token being scanned: its code, the value of a literal or the id
+   // of an identifier, and where its text starts in the Chario buffer,
+   // its length and its position.
+   private int code, value, start, length, line, column;
+   // the chars of the identifier being scanned, upper-cased
+   private char[] keyChars;
+   // every identifier spelling seen, by id
+   private IdentifierPool identifiers;
+   // The tables are shared by all scanners, so they are built only once
+   // per process, e.g. once for all the requests of a CompileDaemon.
+   private static Map<String, Integer> keywords;
+   // Perfect hash table of the keywords, see keywordSlot()
+   private static char[][] keywordSpellings;
+   private static int[] keywordCodes;
    private Chario chario;
    private char ch;
+   // With CompileStats on: tokens scanned per code since the last
+   // publishStats(), and the time taken by the SAMPLE_RATEth ones, which
+   // is all that is timed. EOF is counted once, though the scanner
+   // returns it again when asked for more.
+   private long[] tokenCounts;
+   private long sampledNanos;
+   private int sampled, untilSample;
+   private boolean ended;
+
+   private static final int SAMPLE_RATE = 64;
 
    private static final int MAX_KEY_SPELLING = 9;
 
+   // Char classes. Every ASCII char has one, from a table; other chars
+   // are letters, digits or OTHER as Character says.
+   private static final int OTHER = 0;
+   private static final int LETTER = 1;
+   private static final int DIGIT = 2;
+   private static final int UNDERSCORE = 3;
+   private static final int BLANK = 4;
+   private static final int QUOTE = 5;
+   private static final int END_FILE = 6;
+   // Each char that starts an operator is a class of its own
+   private static final String OP_CHARS = ":,=><()-*/+;.";
+   private static final int FIRST_OP = 7;
+   private static final int CLASSES = FIRST_OP + OP_CHARS.length();
+
+   private static final byte[] ASCII_CLASS = new byte[128];
+   private static final char[] ASCII_UPPER = new char[128];
+   private static final byte[] ASCII_DIGIT_VALUE = new byte[128];
+
+   // Operator transitions: SINGLE_OP[c] is the code of the operator made of
+   // a char of class c alone, DOUBLE_OP[c * CLASSES + d] the code of the one
+   // made of a char of class c followed by one of class d; ERROR for none.
+   private static final int[] SINGLE_OP = new int[CLASSES];
+   private static final int[] DOUBLE_OP = new int[CLASSES * CLASSES];
+
+   static{
+      initKeywords();
+      initKeywordTable();
+      initCharClasses();
+      initOperators();
+   }
+
+   private static void initCharClasses(){
+      for (char c = 0; c < 128; c++){
+         ASCII_UPPER[c] = c;
+         ASCII_DIGIT_VALUE[c] = -1;
+      }
+      for (char c = '0'; c <= '9'; c++){
+         ASCII_CLASS[c] = DIGIT;
+         ASCII_DIGIT_VALUE[c] = (byte) (c - '0');
+      }
+      for (char c = 'A'; c <= 'Z'; c++){
+         char lower = (char) (c - 'A' + 'a');
+         ASCII_CLASS[c] = LETTER;
+         ASCII_CLASS[lower] = LETTER;
+         ASCII_UPPER[lower] = c;
+         ASCII_DIGIT_VALUE[c] = (byte) (c - 'A' + 10);
+         ASCII_DIGIT_VALUE[lower] = (byte) (c - 'A' + 10);
+      }
+      ASCII_CLASS['_'] = UNDERSCORE;
+      ASCII_CLASS[' '] = BLANK;
+      ASCII_CLASS[Chario.EL] = BLANK;
+      ASCII_CLASS[Chario.TAB] = BLANK;
+      ASCII_CLASS['\''] = QUOTE;
+      ASCII_CLASS[Chario.EF] = END_FILE;
+      for (int i = 0; i < OP_CHARS.length(); i++)
+         ASCII_CLASS[OP_CHARS.charAt(i)] = (byte) (FIRST_OP + i);
+   }
+
+   private static void initOperators(){
+      Arrays.fill(SINGLE_OP, Token.ERROR);
+      Arrays.fill(DOUBLE_OP, Token.ERROR);
+      addOperator(":", Token.COLON);
+      addOperator(",", Token.COMMA);
+      addOperator("=", Token.EQ);
+      addOperator(">", Token.GT);
+      addOperator("<", Token.LT);
+      addOperator("(", Token.L_PAR);
+      addOperator("-", Token.MINUS);
+      addOperator("*", Token.MUL);
+      addOperator("/", Token.DIV);
+      addOperator("+", Token.PLUS);
+      addOperator(")", Token.R_PAR);
+      addOperator(";", Token.SEMI);
+      addOperator("**", Token.EXPO);
+      addOperator(">=", Token.GE);
+      addOperator(":=", Token.GETS);
+      addOperator("<=", Token.LE);
+      addOperator("/=", Token.NE);
+      addOperator("..", Token.THRU);
+   }
+
+   private static void addOperator(String spelling, int code){
+      int first = charClass(spelling.charAt(0));
+      if (spelling.length() == 1)
+         SINGLE_OP[first] = code;
+      else
+         DOUBLE_OP[first * CLASSES + charClass(spelling.charAt(1))] = code;
+   }
+
+   private static int charClass(char ch){
+      if (ch < 128)
+         return ASCII_CLASS[ch];
+      if (Character.isLetter(ch))
+         return LETTER;
+      if (Character.isDigit(ch))
+         return DIGIT;
+      return OTHER;
+   }
+
+   // Letters, digits and underscores make up identifiers and numbers
+   private static boolean isWordClass(int c){
+      return c == LETTER || c == DIGIT || c == UNDERSCORE;
+   }
+
+   private static boolean isLetterOrDigit(char ch){
+      int c = charClass(ch);
+      return c == LETTER || c == DIGIT;
+   }
+
+   private static char toUpperCase(char ch){
+      return ch < 128 ? ASCII_UPPER[ch] : Character.toUpperCase(ch);
+   }
+
+   // Same as Character.digit()
+   private static int digit(char ch, int base){
+      if (ch >= 128)
+         return Character.digit(ch, base);
+      int value = ASCII_DIGIT_VALUE[ch];
+      return value < base ? value : -1;
+   }
+
    public Scanner(Chario c){
+      this(c, new IdentifierPool());
+   }
+
+   // A scanner whose identifier ids come from a shared pool,
+   // e.g. one of the scanners of an IncrementalLexer
+   public Scanner(Chario c, IdentifierPool pool){
       chario = c;
-      initKeywords();
-      initSingleOps();
-      initDoubleOps();
+      keyChars = new char[64];
+      identifiers = pool;
+      if (CompileStats.ENABLED)
+         tokenCounts = new long[Token.CODE_COUNT];
       ch = chario.getChar();
    }
 
+   // The pool giving identifier tokens their ids
+   public IdentifierPool getIdentifiers(){
+      return identifiers;
+   }
+
    public void reset(){
       chario.reset();
       ch = chario.getChar();
+      ended = false;
+   }
+
+   // Adds the tokens counted since the last call to CompileStats, with
+   // the time spent scanning them as estimated from the timed ones, and
+   // returns that estimate
+   public long publishStats(){
+      if (! CompileStats.ENABLED)
+         return 0;
+      long count = 0;
+      for (long n : tokenCounts)
+         count += n;
+      long nanos = sampled == 0 ? 0 : sampledNanos * count / sampled;
+      publishStats(nanos);
+      return nanos;
+   }
+
+   // The same with the time measured by the caller, e.g. around a loop
+   // doing nothing but scanning
+   public void publishStats(long nanos){
+      if (! CompileStats.ENABLED)
+         return;
+      CompileStats.addScan(tokenCounts, nanos);
+      Arrays.fill(tokenCounts, 0);
+      sampledNanos = 0;
+      sampled = 0;
    }
       
-   private void initKeywords(){
-      keywords = new HashMap<String, Token>();
-      keywords.put("AND", new Token(Token.AND));
-      keywords.put("ARRAY", new Token(Token.ARRAY));
-      keywords.put("BEGIN", new Token(Token.BEGIN));
-      keywords.put("CONSTANT", new Token(Token.CONST));
-      keywords.put("ELSE", new Token(Token.ELSE));
-      keywords.put("ELSIF", new Token(Token.ELSIF));
-      keywords.put("END", new Token(Token.END));
-      keywords.put("EXIT", new Token(Token.EXIT));
-      keywords.put("IF", new Token(Token.IF));
-      keywords.put("IN", new Token(Token.IN));
-      keywords.put("IS", new Token(Token.IS));
-      keywords.put("LOOP", new Token(Token.LOOP));
-      keywords.put("MOD", new Token(Token.MOD));
-      keywords.put("NOT", new Token(Token.NOT));
-      keywords.put("NULL", new Token(Token.NULL));
-      keywords.put("OF", new Token(Token.OF));
-      keywords.put("OR", new Token(Token.OR));
-      keywords.put("OUT", new Token(Token.OUT));
-      keywords.put("PROCEDURE", new Token(Token.PROC));
-      keywords.put("RANGE", new Token(Token.RANGE));
-      keywords.put("THEN", new Token(Token.THEN));
-      keywords.put("TYPE", new Token(Token.TYPE));
-      keywords.put("WHEN", new Token(Token.WHEN));
-      keywords.put("WHILE", new Token(Token.WHILE));
-   }
-
-   private void initSingleOps(){
-      singleOps = new HashMap<String, Token>();
-      singleOps.put(":", new Token(Token.COLON));
-      singleOps.put(",", new Token(Token.COMMA));
-      singleOps.put("=", new Token(Token.EQ));
-      singleOps.put(">", new Token(Token.GT));
-      singleOps.put("<", new Token(Token.LT));
-      singleOps.put("(", new Token(Token.L_PAR));
-      singleOps.put("-", new Token(Token.MINUS));
-      singleOps.put("*", new Token(Token.MUL));
-      singleOps.put("/", new Token(Token.DIV));
-      singleOps.put("+", new Token(Token.PLUS));
-      singleOps.put(")", new Token(Token.R_PAR));
-      singleOps.put(";", new Token(Token.SEMI));
-   }
-
-   private void initDoubleOps(){
-      doubleOps = new HashMap<String, Token>();
-      doubleOps.put("**", new Token(Token.EXPO));
-      doubleOps.put(">=", new Token(Token.GE));
-      doubleOps.put(":=", new Token(Token.GETS));
-      doubleOps.put("<=", new Token(Token.LE));
-      doubleOps.put("/=", new Token(Token.NE));
-      doubleOps.put("..", new Token(Token.THRU));
-   }
-
-   // Find the token according to the table
-   private Token findToken(Map<String, Token> table, String target){
-      Token t = table.get(target);
-      if (t == null)
-         return new Token(Token.ERROR);
-      else
-         return t;
+   private static void initKeywords(){
+      keywords = new HashMap<String, Integer>();
+      keywords.put("AND", Token.AND);
+      keywords.put("ARRAY", Token.ARRAY);
+      keywords.put("BEGIN", Token.BEGIN);
+      keywords.put("CONSTANT", Token.CONST);
+      keywords.put("ELSE", Token.ELSE);
+      keywords.put("ELSIF", Token.ELSIF);
+      keywords.put("END", Token.END);
+      keywords.put("EXIT", Token.EXIT);
+      keywords.put("IF", Token.IF);
+      keywords.put("IN", Token.IN);
+      keywords.put("IS", Token.IS);
+      keywords.put("LOOP", Token.LOOP);
+      keywords.put("MOD", Token.MOD);
+      keywords.put("NOT", Token.NOT);
+      keywords.put("NULL", Token.NULL);
+      keywords.put("OF", Token.OF);
+      keywords.put("OR", Token.OR);
+      keywords.put("OUT", Token.OUT);
+      keywords.put("PROCEDURE", Token.PROC);
+      keywords.put("RANGE", Token.RANGE);
+      keywords.put("THEN", Token.THEN);
+      keywords.put("TYPE", Token.TYPE);
+      keywords.put("WHEN", Token.WHEN);
+      keywords.put("WHILE", Token.WHILE);
+   }
+
+   // No two keywords agree in length, first and last letter,
+   // so these three select a keyword candidate without collisions.
+   private static int keywordSlot(char first, char last, int length){
+      return ((length - 2) * 26 + first - 'A') * 26 + last - 'A';
    }
 
+   private static void initKeywordTable(){
+      int size = keywordSlot('Z', 'Z', MAX_KEY_SPELLING) + 1;
+      keywordSpellings = new char[size][];
+      keywordCodes = new int[size];
+      for (Map.Entry<String, Integer> entry : keywords.entrySet()){
+         String spelling = entry.getKey();
+         int slot = keywordSlot(spelling.charAt(0), spelling.charAt(spelling.length() - 1), spelling.length());
+         if (keywordSpellings[slot] != null)
+            throw new IllegalStateException("keyword hash collision: " + spelling);
+         keywordSpellings[slot] = spelling.toCharArray();
+         keywordCodes[slot] = entry.getValue();
+      }
+   }
+
+   // The code of the keyword spelled by the upper-case text[0 .. length - 1],
+   // or ID if it is not a keyword
+   private static int keywordCode(char[] text, int length){
+      if (length < 2 || length > MAX_KEY_SPELLING)
+         return Token.ID;
+      char first = text[0];
+      char last = text[length - 1];
+      if (first < 'A' || first > 'Z' || last < 'A' || last > 'Z')
+         return Token.ID;
+      int slot = keywordSlot(first, last, length);
+      char[] spelling = keywordSpellings[slot];
+      if (spelling == null || spelling.length != length)
+         return Token.ID;
+      for (int i = 1; i < length - 1; i++)
+         if (spelling[i] != text[i])
+            return Token.ID;
+      return keywordCodes[slot];
+   }
+
+   // Skips blanks and "--" comments. Chario skips a run of spaces or
+   // the rest of a line in one go.
    private void skipBlanks(){
-      while (ch == ' ' || ch == Chario.EL || ch == Chario.TAB)
-         ch = chario.getChar();
+      while (true){
+         if (ch == ' ' || ch == Chario.TAB)
+            ch = chario.skipSpaces();
+         else if (ch == Chario.EL)
+            ch = chario.getChar();
+         else if (ch == '-' && chario.peekChar() == '-')
+            ch = chario.skipLine();
+         else
+            return;
+      }
+   }
+
+   // Marks the start of a token at the current char
+   private void startToken(){
+      start = chario.getPosition();
+      line = chario.getLineNumber();
+      column = chario.getColumn();
+   }
+
+   // Marks the end of the token before the current char
+   private void endToken(){
+      if (chario.getLineNumber() == line)
+         length = chario.getPosition() - start;
+      else{
+         // a broken char literal running into the next line
+         start = chario.getPosition();
+         length = 0;
+      }
    }
 
    private void getIdentifierOrKeyword(){
       int i = 0;
+      int hash = 0;
       int barCount = 0;
-      StringBuffer id = new StringBuffer(MAX_KEY_SPELLING);
-      tokenBuffer = new StringBuffer();
       // Token.ID means "identifier"
-      token = new Token(Token.ID);
+      code = Token.ID;
       if (ch == '_')
-         chario.putError("illegal leading '_'");
+         chario.putError(Diagnostics.LEXICAL, "illegal leading '_'");
       do{
          // this is why we say "identifiers are not case sensitive"
          // their names are all converted to upper case.
-         ch = Character.toUpperCase(ch);
-         i++;
-         tokenBuffer.append(ch);
-         if (i <= MAX_KEY_SPELLING)
-            id.append(ch);
+         ch = toUpperCase(ch);
+         if (i == keyChars.length)
+            keyChars = Arrays.copyOf(keyChars, 2 * i);
+         keyChars[i++] = ch;
+         hash = 31 * hash + ch;
          if (ch == '_'){
             ch = chario.getChar();
             if (ch == '_')
                barCount++;
-            if (! Character.isLetterOrDigit(ch) && ch != '_')
-               chario.putError("letter or digit expected after '_'");
+            if (! isWordClass(charClass(ch)))
+               chario.putError(Diagnostics.LEXICAL, "letter or digit expected after '_'");
          }
          else
             ch = chario.getChar();
-      }while (Character.isLetterOrDigit(ch) || ch == '_');
+      }while (isWordClass(charClass(ch)));
       if (barCount > 0)
-         chario.putError("letter or digit expected after '_'");
-      if (i <= MAX_KEY_SPELLING){
-         token = findToken(keywords, id.toString());
-         if (token.code == Token.ERROR)
-            token.code = Token.ID;
-      }
-      if (token.code == Token.ID)
-         token.string = tokenBuffer.toString();
+         chario.putError(Diagnostics.LEXICAL, "letter or digit expected after '_'");
+      code = keywordCode(keyChars, i);
+      // the value of an identifier is its id
+      if (code == Token.ID)
+         value = identifiers.intern(keyChars, i, hash);
    }
 
    private void getInteger(){
 
       int base = 16;
 
-      token = new Token(Token.INT);
+      code = Token.INT;
       getBasedInteger(10);
       if (ch == '#'){
-         base = token.integer;
+         base = value;
          if (base < 2 || base > 16){
-            chario.putError("base must be between 2 and 16"); 
+            chario.putError(Diagnostics.LEXICAL, "base must be between 2 and 16"); 
             base = 16;
          }
          ch = chario.getChar();
-         if (! Character.isLetterOrDigit(ch))
-            chario.putError("letter or digit expected after '#'");
+         if (! isLetterOrDigit(ch))
+            chario.putError(Diagnostics.LEXICAL, "letter or digit expected after '#'");
          getBasedInteger(base);
          if (ch == '#')
             ch = chario.getChar();
          else
-            chario.putError("'#' expected");
+            chario.putError(Diagnostics.LEXICAL, "'#' expected");
       }
    }
 
    private void getBasedInteger(int base){
       int barCount = 0;
-      token.integer = 0;
-      while (Character.isLetterOrDigit(ch) || ch == '_')
+      value = 0;
+      while (isWordClass(charClass(ch)))
          if (ch == '_'){
             ch = chario.getChar();
             if (ch == '_')
                barCount++;
-            if (! Character.isLetterOrDigit(ch) && ch != '_')
-               chario.putError("letter or digit expected after '_'");
+            if (! isWordClass(charClass(ch)))
+               chario.putError(Diagnostics.LEXICAL, "letter or digit expected after '_'");
          }
          else{
-            token.integer = base * token.integer + charToInt(ch, base);
+            value = base * value + charToInt(ch, base);
             ch = chario.getChar();
          }
       if (barCount > 0)
-         chario.putError("letter or digit expected after '_'");
+         chario.putError(Diagnostics.LEXICAL, "letter or digit expected after '_'");
    }
 
    private int charToInt(char ch, int base){
-      int digit = Character.digit(ch, base);
+      int digit = digit(ch, base);
       if (digit == -1){
-         chario.putError("digit not in range of base");
+         chario.putError(Diagnostics.LEXICAL, "digit not in range of base");
          digit = 0;
       }
       return digit;
    }
       
    private void getCharacter(){
-      token = new Token(Token.CHAR);
+      code = Token.CHAR;
       ch = chario.getChar();
       if (ch == Chario.EL){
-         chario.putError("''' expected");
-         tokenBuffer.append(' ');
+         chario.putError(Diagnostics.LEXICAL, "''' expected");
+         value = ' ';
          ch = chario.getChar();
       }
       else{
-         token.string = "" + ch;
+         value = ch;
          ch = chario.getChar();
          if (ch == '\'')
             ch = chario.getChar();
          else
-            chario.putError("''' expected");
+            chario.putError(Diagnostics.LEXICAL, "''' expected");
       }
    }
       
-   private void getDoubleOp(){
-      tokenBuffer = new StringBuffer(2);
-      tokenBuffer.append(ch);
+   // Runs the operator transitions from the current char: one char of
+   // lookahead decides between a double and a single operator.
+   private void getOperator(){
+      int first = charClass(ch);
       ch = chario.getChar();
-      tokenBuffer.append(ch);
-      token = findToken(doubleOps, tokenBuffer.toString());
-      if (token.code != Token.ERROR)
+      code = DOUBLE_OP[first * CLASSES + charClass(ch)];
+      if (code != Token.ERROR)
          ch = chario.getChar();
+      else
+         code = SINGLE_OP[first];
    }
 
-   private void getSingleOp(){
-      token = findToken(singleOps, "" + tokenBuffer.charAt(0));
-   }
-
-   public Token nextToken(){
+   // Scans the next token into the fields above
+   private void scan(){
+      long started = 0;
+      if (CompileStats.ENABLED && untilSample == 0)
+         started = System.nanoTime();
       do{
          skipBlanks();
-         if (Character.isLetter(ch) || ch == '_')
-            getIdentifierOrKeyword();
-         else if (Character.isDigit(ch))
-            getInteger();
-         else if (ch == '\'')
-            // Character is surounded by single quote
-            getCharacter();
-         else if (ch == Chario.EF)
-            token = new Token(Token.EOF);
-         else{
-            getDoubleOp();
-            if (token.code == Token.ERROR){
-               getSingleOp();
-               if (token.code == Token.ERROR)
-                  chario.putError("unrecognized symbol");
-            }
+         startToken();
+         switch (charClass(ch)){
+            case LETTER:
+            case UNDERSCORE:
+               getIdentifierOrKeyword();
+               break;
+            case DIGIT:
+               getInteger();
+               break;
+            case QUOTE:
+               // Character is surounded by single quote
+               getCharacter();
+               break;
+            case END_FILE:
+               code = Token.EOF;
+               break;
+            default:
+               getOperator();
+               if (code == Token.ERROR)
+                  chario.putError(Diagnostics.LEXICAL, "unrecognized symbol");
          }
-      }while (token.code == Token.ERROR);
+      }while (code == Token.ERROR);
+      endToken();
+      if (CompileStats.ENABLED){
+         if (code != Token.EOF || ! ended)
+            tokenCounts[code]++;
+         ended = code == Token.EOF;
+         if (untilSample == 0){
+            sampledNanos += System.nanoTime() - started;
+            sampled++;
+            untilSample = SAMPLE_RATE;
+         }
+         untilSample--;
+      }
+   }
+
+   // Returns a new Token every time: Tokens are mutable, and scanners
+   // run on several threads at once, so none are shared.
+   public Token nextToken(){
+      scan();
+      Token token;
+      switch (code){
+         case Token.ID:
+            token = new Token(Token.ID);
+            token.integer = value;
+            token.string = identifiers.getName(value);
+            break;
+         case Token.INT:
+            token = new Token(Token.INT);
+            token.integer = value;
+            break;
+         case Token.CHAR:
+            token = new Token(Token.CHAR);
+            // nothing for a quote at the end of a line
+            if (length > 0)
+               token.string = "" + (char) value;
+            break;
+         default:
+            token = new Token(code);
+      }
       return token;
    }
 
-}
\ No newline at end of file
+   // Scans the next token into cursor instead of a new Token.
+   // Nothing is allocated.
+   public void nextToken(TokenCursor cursor){
+      scan();
+      cursor.code = code;
+      cursor.value = value;
+      cursor.source = chario.getBuffer();
+      cursor.offset = start;
+      cursor.length = length;
+      cursor.line = line;
+      cursor.column = column;
+   }
+
+}
@@ -0,0 +1,170 @@
+import java.awt.*;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+// Chario for the GUI-based app: the source is taken from one text area
+// on every reset and all output goes to another. The headless classes
+// never refer to this adapter, so the terminal app loads no AWT or Swing.
+public class SwingChario extends Chario{
+
+   private JTextArea input, output;
+   // The tokens of the source area, kept up to date on every edit
+   private IncrementalLexer lexer;
+   // The procedure bodies parsed from those tokens
+   private ParseCache cache;
+   // The tokens parse() last used, and whether the text reload() last
+   // read is still that of the source area; an edit drops both
+   private TokenBuffer tokens;
+   private boolean current;
+
+   public SwingChario(JTextArea sourceArea, JTextArea utilityArea){
+      super(new TextAreaSink(utilityArea));
+      input = sourceArea;
+      output = utilityArea;
+      lexer = new IncrementalLexer();
+      cache = new ParseCache();
+      lexer.setText(input.getText());
+      input.getDocument().addDocumentListener(new LexerUpdater());
+      reset();
+   }
+
+   // Tokens per line for highlighting
+   public IncrementalLexer getLexer(){
+      return lexer;
+   }
+
+   // The bodies parse() keeps between parses
+   public ParseCache getParseCache(){
+      return cache;
+   }
+
+   // Parses the source area in mode (see Parser) and reports to the
+   // output area. The tokens come from the lexer, without scanning
+   // again, and the bodies an edit left alone are replayed from the
+   // cache. Nothing is read from the source area if it did not change.
+   public void parse(int mode){
+      reset();
+      if (tokens == null)
+         tokens = lexer.toTokenBuffer();
+      Parser parser = new Parser(this, tokens, mode);
+      parser.setParseCache(cache);
+      try{
+         parser.parse();
+      }
+      catch(Exception e){}
+      reportErrors();
+   }
+
+   // Scans again just the lines an edit of the source area touched
+   private class LexerUpdater implements DocumentListener{
+
+      public void insertUpdate(DocumentEvent e){
+         update(e);
+      }
+
+      public void removeUpdate(DocumentEvent e){
+         update(e);
+      }
+
+      public void changedUpdate(DocumentEvent e){}
+
+      private void update(DocumentEvent e){
+         Document document = e.getDocument();
+         Element root = document.getDefaultRootElement();
+         DocumentEvent.ElementChange change = e.getChange(root);
+         int first, removed;
+         Element[] added;
+         if (change == null){
+            // within one line
+            first = root.getElementIndex(e.getOffset());
+            removed = 1;
+            added = new Element[] {root.getElement(first)};
+         }
+         else{
+            first = change.getIndex();
+            removed = change.getChildrenRemoved().length;
+            added = change.getChildrenAdded();
+         }
+         try{
+            List<String> lines = new ArrayList<String>(added.length);
+            for (Element line : added){
+               int start = line.getStartOffset();
+               int end = Math.min(line.getEndOffset(), document.getLength());
+               String text = document.getText(start, end - start);
+               if (text.endsWith("\n"))
+                  text = text.substring(0, text.length() - 1);
+               lines.add(text);
+            }
+            lexer.replaceLines(first, removed, lines);
+         }
+         catch(BadLocationException ex){
+            lexer.setText(input.getText());
+         }
+         tokens = null;
+         current = false;
+      }
+
+   }
+
+   protected void reload(){
+      if (! current){
+         char[] text = input.getText().toCharArray();
+         setSource(text, text.length);
+         current = true;
+      }
+      output.setText("");
+   }
+
+   public void openFile(){
+      try{
+         FileDialog fileDialog = new FileDialog(new Frame(), "Input file", FileDialog.LOAD);
+         fileDialog.setSize(450, 300);
+         fileDialog.setVisible(true);
+         String fileName = fileDialog.getFile();
+         String dirName = fileDialog.getDirectory();
+         // Check for cancellation.
+         if (fileName != null && dirName != null){
+            File file = new File(dirName, fileName);
+            FileInputStream inputStream = new FileInputStream(file);
+            readFile(inputStream);
+            input.setText(getSourceText());
+            inputStream.close();
+         }
+      }
+      catch(IOException e){
+         System.out.println("Error in opening input file" + e.toString());
+      }
+   }
+
+   public void saveFile(JTextArea input){
+      try{            
+         FileDialog fileDialog = new FileDialog(new Frame(), "Output file", FileDialog.SAVE);
+         fileDialog.setSize(100, 100);
+         fileDialog.setVisible(true);
+         String dirName = fileDialog.getDirectory();
+         String fileName = fileDialog.getFile();
+         // Check for cancellation.
+         if (dirName != null && fileName != null){
+            File file = new File(dirName, fileName);
+            FileOutputStream outputStream = new FileOutputStream(file);
+            writeFile(outputStream, input);
+            outputStream.close();
+         }
+      }
+      catch(IOException e){
+         System.out.println("Error opening file: " + e.toString());
+      }
+   }
+
+   private void writeFile(FileOutputStream stream, JTextArea input){
+      String text = input.getText();
+      PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream)));
+      writer.print(text);
+      writer.flush();
+   }
+
+}
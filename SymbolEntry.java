@@ -7,15 +7,23 @@ public class SymbolEntry extends Object{
    public static final int TYPE = 4;
    public static final int VAR = 5;
 
-   // name is just the identifier name
+   // name is just the identifier name, id its IdentifierPool id
    private String name;
+   public final int id;
+   // the scope level of the declaration
+   public final int level;
    public int role;
    public SymbolEntry next;
+   // the entry of the same identifier this one hides in an outer scope
+   public SymbolEntry outer;
 
-   public SymbolEntry(String id){
-      name = id;
+   public SymbolEntry(String name, int id, int level){
+      this.name = name;
+      this.id = id;
+      this.level = level;
       role = NONE;
       next = null;
+      outer = null;
    }
 
    public String toString(int mode){
@@ -3,67 +3,129 @@ import java.util.*;
 public class SymbolTable extends Object{
    // Level 0 is the outmost scope when you start the program.
    private int level;
-   private Stack<Map<String, SymbolEntry>> stack;
+   // The entries of each open scope, in order of declaration
+   private Stack<List<SymbolEntry>> stack;
+   // The innermost visible entry of each identifier id, null if none;
+   // the entries it hides are chained through SymbolEntry.outer.
+   private SymbolEntry[] visible;
+   private IdentifierPool identifiers;
    private Chario chario;
+   // For a table above another: the enclosing table, read but never
+   // changed, and the entries of it that are not visible through this one
+   private SymbolTable enclosing;
+   private Set<SymbolEntry> hidden;
 
 
-   public SymbolTable(Chario c){
+   public SymbolTable(Chario c, IdentifierPool pool){
       chario = c;
+      identifiers = pool;
       reset();
    }
 
+   // A table whose first scope is the top scope of enclosing, as seen
+   // without the hidden entries: names entered here go into that scope
+   // but enclosing is only read, so tables for different threads can
+   // share it, as long as it does not change while they are used.
+   public SymbolTable(Chario c, SymbolTable enclosing, Set<SymbolEntry> hidden){
+      chario = c;
+      identifiers = enclosing.identifiers;
+      reset();
+      this.enclosing = enclosing;
+      this.hidden = hidden;
+      stack.push(new ArrayList<SymbolEntry>());
+      level = enclosing.level;
+   }
+
    // Clear the SymbolTable and set the stack empty.
    public void reset(){
       level = -1;
-      stack = new Stack<Map<String, SymbolEntry>>();
+      stack = new Stack<List<SymbolEntry>>();
+      visible = new SymbolEntry[Math.max(64, identifiers.size())];
    }
 
    // Add a new table onto the top of the stack.
    public void enterScope(){
-      stack.push(new HashMap<String, SymbolEntry>());
+      stack.push(new ArrayList<SymbolEntry>());
       level++;
    }
 
-   // Pop out the topmost table.
+   // Pop out the topmost table, uncovering the entries its own hid.
    public void exitScope(int mode){
-      Map<String, SymbolEntry> table = stack.pop();
-      printTable(table, mode);
+      String text = scopeText(mode);
+      List<SymbolEntry> table = stack.pop();
+      for (SymbolEntry s : table)
+         visible[s.id] = s.outer;
+      printScope(level, text);
       level--;
    }
 
+   // The level of the topmost table
+   public int getLevel(){
+      return level;
+   }
+
    // Enter a new identifier to the topmost table and return the symbol entry.
    // If it already exists in the table, it would print en error message but continues.
-   public SymbolEntry enterSymbol(String id){
-      Map<String, SymbolEntry> table = stack.peek();
-      if (table.containsKey(id)){
-         chario.putError("identifier already declared in this block");
+   public SymbolEntry enterSymbol(int id){
+      if (id >= visible.length)
+         visible = Arrays.copyOf(visible, Math.max(2 * visible.length, identifiers.size()));
+      SymbolEntry outer = lookup(id);
+      if (outer != null && outer.level == level){
+         chario.putError(Diagnostics.SCOPE, "identifier already declared in this block");
          return null;
       }
       else{
-         SymbolEntry s = new SymbolEntry(id);
-         table.put(id, s);
+         SymbolEntry s = new SymbolEntry(identifiers.getName(id), id, level);
+         s.outer = outer;
+         visible[id] = s;
+         stack.peek().add(s);
          return s;
       } 
    }
 
-   // Find the symbol in the table (progressively going further into the stack) and return it.
+   public SymbolEntry enterSymbol(String name){
+      return enterSymbol(identifiers.intern(name));
+   }
+
+   // Find the innermost visible entry of the identifier and return it.
    // If it does not exist, return an empty symbole entry.
-   public SymbolEntry findSymbol(String id){
-      for (int i = stack.size() - 1; i >= 0; i--){
-         Map<String, SymbolEntry> table = stack.get(i);
-         SymbolEntry s = table.get(id);
-         if (s != null)
-             return s;
+   public SymbolEntry findSymbol(int id){
+      SymbolEntry s = lookup(id);
+      if (s == null)
+         chario.putError(Diagnostics.SCOPE, "undeclared identifier");
+      return s;
+   }
+
+   public SymbolEntry findSymbol(String name){
+      return findSymbol(identifiers.intern(name));
+   }
+
+   // The innermost visible entry of the identifier, or null, without
+   // reporting anything
+   public SymbolEntry lookup(int id){
+      SymbolEntry s = id < visible.length ? visible[id] : null;
+      if (s == null && enclosing != null){
+         s = enclosing.lookup(id);
+         while (s != null && hidden.contains(s))
+            s = s.outer;
       }
-      chario.putError("undeclared identifier");
-      return null;
+      return s;
    }
          
-   private void printTable(Map<String, SymbolEntry> table, int mode){
-      chario.println("\nLevel " + level);
+   // The entries of the topmost table as exitScope() prints them
+   public String scopeText(int mode){
+      StringBuilder text = new StringBuilder();
+      for (SymbolEntry s : stack.peek())
+         text.append(s.toString(mode)).append('\n');
+      return text.toString();
+   }
+
+   // Prints a table of the given level, with entries from scopeText()
+   public void printScope(int scopeLevel, String entries){
+      chario.println("\nLevel " + scopeLevel);
       chario.println("---------");
-      for (SymbolEntry s : table.values())
-         chario.println(s.toString(mode));
+      if (entries.length() > 0)
+         chario.println(entries.substring(0, entries.length() - 1));
    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,14 @@
+// Thrown by Parser once a syntax error has been reported, to unwind to
+// the nearest statement or declaration where parsing can pick up again.
+// It carries nothing, so a single instance without a stack trace serves.
+public class SyntaxError extends RuntimeException{
+
+   private static final long serialVersionUID = 1L;
+
+   public static final SyntaxError INSTANCE = new SyntaxError();
+
+   private SyntaxError(){
+      super("syntax error", null, false, false);
+   }
+
+}
@@ -0,0 +1,162 @@
+import java.util.*;
+
+// A syntax tree in flat arrays, the nodes being indexes into them rather
+// than objects: node n is kind(n), token(n) and so on. The children of a
+// node run from firstChild() through nextSibling() to NONE.
+//
+// Leaves are tokens: their kind is the Token code and their value the
+// token's value, e.g. the IdentifierPool id of an identifier. The other
+// nodes have a Grammar nonterminal as kind. token() is the index of the
+// first token of a node, counting from 0 as a TokenBuffer does.
+// Parser describes the shape of the tree it builds.
+public class SyntaxTree extends Object{
+
+   public static final int NONE = -1;
+
+   private int count, root;
+   private int[] kind, token, value;
+   private int[] firstChild, lastChild, nextSibling;
+
+   public SyntaxTree(){
+      this(256);
+   }
+
+   public SyntaxTree(int capacity){
+      capacity = Math.max(capacity, 16);
+      kind = new int[capacity];
+      token = new int[capacity];
+      value = new int[capacity];
+      firstChild = new int[capacity];
+      lastChild = new int[capacity];
+      nextSibling = new int[capacity];
+      clear();
+   }
+
+   // Drops all nodes, keeping the arrays for the next tree
+   public void clear(){
+      count = 0;
+      root = NONE;
+   }
+
+   // A new node without children
+   public int add(int nodeKind, int tokenIndex, int tokenValue){
+      if (count == kind.length){
+         int capacity = 2 * count;
+         kind = Arrays.copyOf(kind, capacity);
+         token = Arrays.copyOf(token, capacity);
+         value = Arrays.copyOf(value, capacity);
+         firstChild = Arrays.copyOf(firstChild, capacity);
+         lastChild = Arrays.copyOf(lastChild, capacity);
+         nextSibling = Arrays.copyOf(nextSibling, capacity);
+      }
+      kind[count] = nodeKind;
+      token[count] = tokenIndex;
+      value[count] = tokenValue;
+      firstChild[count] = NONE;
+      lastChild[count] = NONE;
+      nextSibling[count] = NONE;
+      return count++;
+   }
+
+   // Makes child the last child of parent
+   public void append(int parent, int child){
+      if (firstChild[parent] == NONE)
+         firstChild[parent] = child;
+      else
+         nextSibling[lastChild[parent]] = child;
+      lastChild[parent] = child;
+   }
+
+   public void setRoot(int node){
+      root = node;
+   }
+
+   // The tree's root, NONE while there is none
+   public int root(){
+      return root;
+   }
+
+   // The number of nodes, including those not in the tree
+   public int size(){
+      return count;
+   }
+
+   public static boolean isLeaf(int nodeKind){
+      return nodeKind < Grammar.NONTERMINAL;
+   }
+
+   public int kind(int node){
+      return kind[node];
+   }
+
+   public int token(int node){
+      return token[node];
+   }
+
+   public int value(int node){
+      return value[node];
+   }
+
+   public int firstChild(int node){
+      return firstChild[node];
+   }
+
+   public int nextSibling(int node){
+      return nextSibling[node];
+   }
+
+   // Writes the tree one node per line, children indented below their
+   // parent, with identifiers named from identifiers
+   public void print(OutputSink sink, IdentifierPool identifiers){
+      if (root == NONE)
+         return;
+      StringBuilder text = new StringBuilder();
+      // the nodes still to print and their depths, deepest on top
+      int[] nodes = new int[64], depths = new int[64];
+      int top = 0;
+      nodes[top] = root;
+      depths[top++] = 0;
+      while (top > 0){
+         int node = nodes[--top];
+         int depth = depths[top];
+         for (int i = 0; i < depth; i++)
+            text.append("  ");
+         text.append(label(node, identifiers)).append('\n');
+         // deep trees print a lot of indentation
+         if (text.length() >= 8192){
+            sink.print(text.toString());
+            text.setLength(0);
+         }
+         // push the children last to first
+         int children = 0;
+         for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+            children++;
+         if (top + children > nodes.length){
+            nodes = Arrays.copyOf(nodes, 2 * (top + children));
+            depths = Arrays.copyOf(depths, nodes.length);
+         }
+         int i = top + children;
+         for (int child = firstChild[node]; child != NONE; child = nextSibling[child]){
+            nodes[--i] = child;
+            depths[i] = depth + 1;
+         }
+         top += children;
+      }
+      sink.print(text.toString());
+      sink.flush();
+   }
+
+   private String label(int node, IdentifierPool identifiers){
+      switch (kind[node]){
+         case Token.ID:
+            return identifiers.getName(value[node]);
+         case Token.INT:
+            return Integer.toString(value[node]);
+         case Token.CHAR:
+            return "'" + (char) value[node] + "'";
+         default:
+            return isLeaf(kind[node]) ? Token.codeName(kind[node]) : Grammar.name(kind[node]);
+      }
+   }
+
+}
@@ -1,101 +1,398 @@
 /*
 You can test Chario, Scanner, or Parser separately by adding and removing comments
-in the last few lines of the TerminalApp constructor.
+in the last few lines of the compile method.
 */
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class TerminalApp{
 
-   // Data model
-   private Chario chario;
-   private Scanner scanner;
-   private Parser parser;
+   // Options
+   private boolean streaming, quiet, prescan, parallelScan, parallelParse, tableDriven, printTree;
+   // number of threads compiling files in parallel, 0 for sequential mode
+   private int jobs;
+   private String outputFile;
+   private String format = "text";
+   // Relative file names are taken relative to this directory,
+   // or to the working directory if it is null. A run on behalf of a
+   // client, with a directory, only reads the sources in it and only
+   // writes to the sinks it was given.
+   private File directory;
+   // Destination of messages and, without -o, of all output
+   private OutputSink console;
+   // Destination of the messages that would spoil JSON or SARIF output
+   private OutputSink errors;
+
+   // Size of the source window in streaming mode
+   private static final int WINDOW_SIZE = 64 * 1024;
+   // The most threads a ForkJoinPool can have
+   private static final int MAX_JOBS = 32767;
 
    public TerminalApp(String args[]){
-      int mode = getMode(args);
+      this(args, null, new WriterSink(System.out), new WriterSink(System.err));
+   }
+
+   // Runs the compiler with the given command-line arguments and writes
+   // to out and err, e.g. on behalf of a CompileDaemon client.
+   public TerminalApp(String args[], File dir, OutputSink out, OutputSink err){
+      directory = dir;
+      console = out;
+      errors = err;
+      try{
+         run(args);
+      }
+      finally{
+         console.flush();
+         errors.flush();
+      }
+   }
+
+   private void run(String args[]){
+      List<String> sources = new ArrayList<String>();
+      int mode = getMode(args, sources);
       if(mode == -1){
          return;
       }
-      String filename = args[0];
+      List<String> files = new ArrayList<String>();
+      for (String source : sources)
+         addSource(source, files);
+      boolean structured = ! format.equals("text");
+      OutputSink sink = console;
+      WriterSink fileSink = null;
+      if (outputFile != null){
+         try{
+            fileSink = new WriterSink(resolve(outputFile).getPath());
+         }catch(IOException e){
+            message("Error opening output file.");
+            return;
+         }
+         sink = fileSink;
+      }
+      boolean batch = files.size() > 1;
+      List<String> uris = new ArrayList<String>();
+      List<Diagnostics> results = new ArrayList<Diagnostics>();
+      int withErrors = 0, unreadable = 0, totalErrors = 0;
+      long startTime = System.nanoTime();
+      // In parallel mode every file is compiled into its own buffer,
+      // which is copied to the sink in input order.
+      ForkJoinPool pool = null;
+      List<Future<Diagnostics>> pending = new ArrayList<Future<Diagnostics>>();
+      List<BufferSink> outputs = new ArrayList<BufferSink>();
+      if (jobs > 0){
+         pool = new ForkJoinPool(jobs);
+         for (String filename : files){
+            BufferSink output = new BufferSink();
+            outputs.add(output);
+            pending.add(pool.submit(new CompileTask(filename, mode, structured ? new NullSink() : output)));
+         }
+      }
+      for (int i = 0; i < files.size(); i++){
+         String filename = files.get(i);
+         if (batch && ! structured)
+            sink.print("\n==> " + filename + " <==\n");
+         // JSON and SARIF documents replace all the other output
+         Diagnostics diagnostics;
+         if (pool == null)
+            diagnostics = compile(filename, mode, structured ? new NullSink() : sink);
+         else{
+            try{
+               diagnostics = pending.get(i).get();
+            }catch(InterruptedException e){
+               throw new RuntimeException(e);
+            }catch(ExecutionException e){
+               throw new RuntimeException(e.getCause());
+            }
+            outputs.get(i).writeTo(sink);
+            // let the buffer go as soon as it has been written
+            outputs.set(i, null);
+         }
+         if (diagnostics == null){
+            unreadable++;
+            if (structured)
+               errors.print("Error opening file " + filename + "\n");
+            else
+               sink.print("Error opening file.\n");
+         }
+         else{
+            uris.add(filename);
+            results.add(diagnostics);
+            totalErrors += diagnostics.size();
+            if (diagnostics.size() > 0)
+               withErrors++;
+         }
+      }
+      if (structured){
+         String[] uriArray = uris.toArray(new String[0]);
+         Diagnostics[] resultArray = results.toArray(new Diagnostics[0]);
+         if (format.equals("json"))
+            Diagnostics.printJson(sink, uriArray, resultArray);
+         else
+            Diagnostics.printSarif(sink, uriArray, resultArray);
+      }
+      else if (batch)
+         sink.print("\nBatch complete. " + results.size() + " files compiled, " +
+                    withErrors + " with errors, " + totalErrors + " errors in total" +
+                    (unreadable > 0 ? ", " + unreadable + " files could not be opened.\n" : ".\n"));
+      if (pool != null){
+         pool.shutdown();
+         reportThroughput(files, System.nanoTime() - startTime, structured ? errors : sink);
+      }
+      if (CompileStats.ENABLED)
+         CompileStats.printSummary(structured ? errors : sink);
+      if (fileSink != null)
+         fileSink.close();
+   }
+
+   private void message(String s){
+      console.print(s + "\n");
+   }
+
+   private File resolve(String filename){
+      File file = new File(filename);
+      if (directory != null && ! file.isAbsolute())
+         file = new File(directory, filename);
+      return file;
+   }
+
+   private void reportThroughput(List<String> files, long nanos, OutputSink sink){
+      long bytes = 0;
+      for (String filename : files)
+         bytes += resolve(filename).length();
+      double seconds = Math.max(nanos, 1) / 1e9;
+      sink.print(String.format("Compiled %d files (%d bytes) in %.3f s on %d thread(s): %.1f files/sec, %.2f MB/sec%n",
+                               files.size(), bytes, seconds, jobs,
+                               files.size() / seconds, bytes / seconds / (1024 * 1024)));
+      sink.flush();
+   }
+
+   // Compiles one file on a worker thread of the parallel mode
+   private class CompileTask implements Callable<Diagnostics>{
+
+      private String filename;
+      private int mode;
+      private OutputSink sink;
+
+      public CompileTask(String filename, int mode, OutputSink sink){
+         this.filename = filename;
+         this.mode = mode;
+         this.sink = sink;
+      }
+
+      public Diagnostics call(){
+         return compile(filename, mode, sink);
+      }
+
+   }
+
+   // Compiles one source file, writing its listing and report to sink.
+   // Returns the errors found, or null if the file cannot be opened.
+   private Diagnostics compile(String filename, int mode, OutputSink sink){
       FileInputStream stream;
       try{
-         stream = new FileInputStream(filename);
+         stream = new FileInputStream(resolve(filename));
       }catch(IOException e){
-         System.out.println("Error opening file.");
+         return null;
+      }
+      // Everything is local so that files can be compiled in parallel.
+      Chario chario;
+      if (streaming)
+         chario = new Chario(stream.getChannel(), WINDOW_SIZE);
+      else
+         chario = new Chario(stream);
+      chario.setListing(! quiet);
+      chario.setOutput(sink);
+      //testChario(chario);
+      Parser parser;
+      IdentifierPool identifiers;
+      // the chunks have scanners of their own
+      if (parallelScan){
+         TokenBuffer tokens = ParallelLexer.scan(chario, ForkJoinPool.commonPool());
+         identifiers = tokens.getIdentifiers();
+         parser = new Parser(chario, tokens, mode);
+      }
+      else{
+         Scanner scanner = new Scanner(chario);
+         identifiers = scanner.getIdentifiers();
+         //testScanner(chario, scanner);
+         if (prescan)
+            parser = new Parser(chario, TokenBuffer.scan(chario, scanner), mode);
+         else
+            parser = new Parser(chario, scanner, mode);
+      }
+      parser.setTableDriven(tableDriven);
+      if (parallelParse)
+         parser.setParallel(ForkJoinPool.commonPool());
+      SyntaxTree tree = null;
+      if (printTree){
+         tree = new SyntaxTree();
+         parser.setSyntaxTree(tree);
+      }
+      testParser(chario, parser);
+      if (tree != null){
+         sink.print("\nSyntax tree:\n");
+         tree.print(sink, identifiers);
+      }
+      try{
+         stream.close();
+      }catch(IOException e){}
+      return chario.getDiagnostics();
+   }
+
+   // Adds the files named by a command-line source to files.
+   // A directory stands for all .ada files below it, and @name for
+   // the sources listed in file name, one per line.
+   private void addSource(String source, List<String> files){
+      if (directory != null && ! inDirectory(source.startsWith("@") ? source.substring(1) : source)){
+         message("Error: " + source + " is not in the working directory");
+         return;
+      }
+      if (source.startsWith("@")){
+         try{
+            BufferedReader reader = new BufferedReader(new FileReader(resolve(source.substring(1))));
+            String line = reader.readLine();
+            while (line != null){
+               line = line.trim();
+               if (line.length() > 0)
+                  addSource(line, files);
+               line = reader.readLine();
+            }
+            reader.close();
+         }catch(IOException e){
+            message("Error reading list file " + source.substring(1));
+         }
          return;
-      }      
-      chario = new Chario(stream);
-      //testChario();
-      scanner = new Scanner(chario);
-      //testScanner();
-      parser = new Parser(chario, scanner, mode);
-      testParser();
+      }
+      File file = resolve(source);
+      if (file.isDirectory()){
+         String[] names = file.list();
+         if (names == null)
+            return;
+         Arrays.sort(names);
+         for (String name : names){
+            String entry = new File(source, name).getPath();
+            if (resolve(entry).isDirectory() || name.endsWith(".ada"))
+               addSource(entry, files);
+         }
+      }
+      else
+         files.add(source);
    }
 
+   // Whether filename is a relative name of a file in directory, where
+   // symbolic links do not lead out of it either
+   private boolean inDirectory(String filename){
+      if (new File(filename).isAbsolute())
+         return false;
+      try{
+         String base = directory.getCanonicalPath();
+         String path = resolve(filename).getCanonicalPath();
+         return path.equals(base) || path.startsWith(base.endsWith(File.separator) ? base : base + File.separator);
+      }catch(IOException e){
+         return false;
+      }
+   }
+
+   // Sources are added to the list, the options are saved in fields.
    // -1 is returned if invalid args are given
-   private int getMode(String args[]){
-      int mode;
+   private int getMode(String args[], List<String> sources){
+      int mode = Parser.NONE;
       if (args.length == 0){
-         System.out.println("USAGE: java -jar hw2.jar <src file> ([options])");
-         System.out.println("options are zero or more of:");
-         System.out.println("-s scope analysis");
-         System.out.println("-r role analysis");
-         mode = -1;
-      }
-      else if (args.length == 1){
-         // only a source filename
-         mode = Parser.NONE;
-      }
-      else if (args.length == 2){
-         // a filename and an option specification
-         if (args[1].equals("-s")){
-            mode = Parser.SCOPE;
-         }
-         else if (args[1].equals("-r")){
-            mode = Parser.ROLE;
-         }
-         else{
-            System.out.println("Invalid option: " + args[1]);
-            mode = -1;
-         }
+         message("USAGE: java -jar hw2.jar <src file> ... ([options])");
+         message("a src file may also be a directory of .ada files,");
+         message("or @<list file> naming one source per line");
+         message("options are zero or more of:");
+         message("-s scope analysis");
+         message("-r role analysis");
+         message("-w stream the source through a fixed-size window");
+         message("-b scan the whole source before parsing (not with -w)");
+         message("-p like -b, scanning chunks of the source on all cores");
+         message("-P like -p, also parsing nested procedure bodies on all cores");
+         message("-t parse with the table-driven LL(1) engine (not with -s or -r)");
+         message("-a print the syntax tree after the report (not with -t)");
+         message("-q diagnostics only, without the source listing");
+         message("-o <file> write the output to a file");
+         message("-f <format> report errors as text (default), json or sarif");
+         message("-j <n> compile files on n threads (0 for all cores)");
+         message("");
+         message("java TerminalApp -daemon <address> runs a compile server");
+         message("java TerminalApp -client <address> <src file> ... ([options])");
+         message("compiles through that server; <address> is a localhost port");
+         message("or the path of a Unix domain socket");
+         message("that only its own user may use; a request reads no sources");
+         message("outside the client's directory and cannot use -o");
+         return -1;
       }
-      else if (args.length == 3){
-         // the two options specified must be "-r" or "-s"
-         boolean condition1 = args[1].equals("-r") && args[2].equals("-s");
-         boolean condition2 = args[1].equals("-s") && args[2].equals("-r");
-         if (condition1 || condition2){
+      for (int i = 0; i < args.length; i++){
+         if (! args[i].startsWith("-"))
+            sources.add(args[i]);
+         else if (args[i].equals("-s"))
+            mode = Math.max(mode, Parser.SCOPE);
+         else if (args[i].equals("-r"))
             mode = Parser.ROLE;
+         else if (args[i].equals("-w"))
+            streaming = true;
+         else if (args[i].equals("-b"))
+            prescan = true;
+         else if (args[i].equals("-p"))
+            prescan = parallelScan = true;
+         else if (args[i].equals("-P"))
+            prescan = parallelScan = parallelParse = true;
+         else if (args[i].equals("-t"))
+            tableDriven = true;
+         else if (args[i].equals("-a"))
+            printTree = true;
+         else if (args[i].equals("-q"))
+            quiet = true;
+         else if (args[i].equals("-j") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,5}") &&
+                  Integer.parseInt(args[i + 1]) <= MAX_JOBS){
+            jobs = Integer.parseInt(args[++i]);
+            if (jobs == 0)
+               jobs = Runtime.getRuntime().availableProcessors();
          }
+         else if (args[i].equals("-o") && i + 1 < args.length)
+            outputFile = args[++i];
+         else if (args[i].equals("-f") && i + 1 < args.length &&
+                  (args[i + 1].equals("text") || args[i + 1].equals("json") || args[i + 1].equals("sarif")))
+            format = args[++i];
          else{
-            System.out.print("Invalid option combination:");
-            for(int i = 1; i < args.length; i ++){
-               System.out.print(" " + args[i]);
-            }
-            System.out.print('\n');
-            mode = -1;
+            message("Invalid option: " + args[i]);
+            return -1;
          }
       }
-      else{
-            System.out.print("Invalid option combination:");
-            for(int i = 1; i < args.length; i ++){
-               System.out.print(" " + args[i]);
-            }
-            System.out.print('\n');
-            mode = -1;
+      if (sources.isEmpty()){
+         message("No source file given.");
+         return -1;
+      }
+      if (outputFile != null && directory != null){
+         message("-o cannot be used through the daemon, whose output goes to the client.");
+         return -1;
+      }
+      if (prescan && streaming){
+         message((parallelParse ? "-P" : parallelScan ? "-p" : "-b") + " needs the whole source in memory and cannot be used with -w.");
+         return -1;
+      }
+      if (tableDriven && mode != Parser.NONE){
+         message("-t only checks the syntax and cannot be used with -s or -r.");
+         return -1;
+      }
+      if (tableDriven && printTree){
+         message("-t builds no syntax tree and cannot be used with -a.");
+         return -1;
       }
       return mode;
    }
 
 
-   private void testChario(){
+   private void testChario(Chario chario){
       char ch = chario.getChar();
       while (ch != Chario.EF)
          ch = chario.getChar();
       chario.reportErrors();
    }
 
-   private void testScanner(){
+   private void testScanner(Chario chario, Scanner scanner){
       Token token = scanner.nextToken();
       while (token.code != Token.EOF){
          chario.println(token.toString());
@@ -104,7 +401,7 @@ public class TerminalApp{
       chario.reportErrors();
    }
 
-   private void testParser(){
+   private void testParser(Chario chario, Parser parser){
       try{
          parser.parse();
       }
@@ -114,6 +411,14 @@ public class TerminalApp{
 
 
    public static void main(String args[]){
-      new TerminalApp(args);
+      if (args.length >= 2 && args[0].equals("-daemon"))
+         CompileDaemon.serve(args[1]);
+      else if (args.length >= 2 && args[0].equals("-client")){
+         int status = CompileDaemon.forward(args[1], Arrays.copyOfRange(args, 2, args.length));
+         if (status != 0)
+            System.exit(status);
+      }
+      else
+         new TerminalApp(args);
    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+import javax.swing.*;
+
+// Sink appending to the utility area of the GUI-based app
+public class TextAreaSink extends Object implements OutputSink{
+
+   private JTextArea area;
+
+   public TextAreaSink(JTextArea utilityArea){
+      area = utilityArea;
+   }
+
+   public void print(String s){
+      area.append(s);
+   }
+
+   public void print(char[] text, int offset, int length){
+      area.append(new String(text, offset, length));
+   }
+
+   public void flush(){}
+
+}
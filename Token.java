@@ -52,7 +52,8 @@ public class Token{
    public int code;
 
    // for keywords or operators, these two variables have no meaning
-   // integer seems to be used when this token represents a number literal
+   // integer seems to be used when this token represents a number literal,
+   // or the id of an identifier (see IdentifierPool)
    public int integer;
    // string seems to be used when this token represents a char, an identifier or a keyword
    public String string;
@@ -63,6 +64,13 @@ public class Token{
       string = "";
    }
 
+   // Number of token codes, and the name of each
+   public static final int CODE_COUNT = WHILE + 1;
+
+   public static String codeName(int code){
+      return CODES[code];
+   }
+
    public String toString(){
       String s = "Code    = " + CODES[code];
       if (code == INT)
@@ -75,6 +83,6 @@ public class Token{
    private static final String CODES[] = {"AND", "ARRAY", "BEGIN", "CHAR", "COLON", "COMMA", "CONST", "DIV", "ELSE", "ELSIF",
                                   "END", "EOF", "EQ", "ERROR", "EXIT", "EXPO", "GE", "GETS", "GT", "ID", "IF", "IN",
                                   "INT", "IS", "LE", "LT", "LOOP", "L_PAR", "MINUS", "MOD", "MUL", "NE", "NOT", "NULL",
-                                  "OF", "OR", "OUT", "PERIOD", "PLUS", "PROC", "R_PAR", "RANGE", "RECORD", "SEMI", 
+                                  "OF", "OR", "OUT", "PLUS", "PROC", "R_PAR", "RANGE", "SEMI", 
                                   "THEN", "THRU", "TYPE", "WHEN", "WHILE"};
 }
\ No newline at end of file
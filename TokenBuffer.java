@@ -0,0 +1,171 @@
+import java.util.*;
+
+// The tokens of a whole source program, scanned in advance and stored
+// column by column: token i is code(i), value(i) and so on, and the last
+// token is always EOF. A Parser walks it by index, so it can look ahead
+// any number of tokens and parse the same tokens again without scanning.
+public class TokenBuffer extends Object{
+
+   private int count;
+   private int[] code, value;
+   // where the text of the token starts in the Chario buffer, and its length
+   private int[] offset, length;
+   // position of the first char of the token
+   private int[] line, column;
+   // position where the scanner stopped after the token, which is where
+   // errors found at the token are reported
+   private int[] endLine, endColumn;
+   // number of errors the scanner had reported when done with the token
+   private int[] errors;
+   // the errors found while scanning
+   private Diagnostics diagnostics;
+   private IdentifierPool identifiers;
+
+   public TokenBuffer(IdentifierPool identifiers, Diagnostics diagnostics, int capacity){
+      this.identifiers = identifiers;
+      this.diagnostics = diagnostics;
+      capacity = Math.max(capacity, 16);
+      code = new int[capacity];
+      value = new int[capacity];
+      offset = new int[capacity];
+      length = new int[capacity];
+      line = new int[capacity];
+      column = new int[capacity];
+      endLine = new int[capacity];
+      endColumn = new int[capacity];
+      errors = new int[capacity];
+      count = 0;
+   }
+
+   // Scans the rest of the source up to and including EOF. The listing is
+   // held back until a Parser replays it.
+   public static TokenBuffer scan(Chario chario, Scanner scanner){
+      // about one token per four chars of source
+      return scan(chario, scanner, chario.getBufferLength() / 4);
+   }
+
+   // The same with room for capacity tokens to begin with
+   public static TokenBuffer scan(Chario chario, Scanner scanner, int capacity){
+      chario.holdListing();
+      Diagnostics diagnostics = chario.getDiagnostics();
+      TokenBuffer tokens = new TokenBuffer(scanner.getIdentifiers(), diagnostics, capacity);
+      TokenCursor cursor = new TokenCursor();
+      long started = CompileStats.ENABLED ? System.nanoTime() : 0;
+      do{
+         scanner.nextToken(cursor);
+         tokens.add(cursor, chario.getLineNumber(), chario.getColumn(), diagnostics.size());
+      }while (cursor.code != Token.EOF);
+      if (CompileStats.ENABLED)
+         scanner.publishStats(System.nanoTime() - started);
+      return tokens;
+   }
+
+   public void add(TokenCursor cursor, int endLineNumber, int endColumnNumber, int errorCount){
+      if (count == code.length){
+         int capacity = 2 * count;
+         code = Arrays.copyOf(code, capacity);
+         value = Arrays.copyOf(value, capacity);
+         offset = Arrays.copyOf(offset, capacity);
+         length = Arrays.copyOf(length, capacity);
+         line = Arrays.copyOf(line, capacity);
+         column = Arrays.copyOf(column, capacity);
+         endLine = Arrays.copyOf(endLine, capacity);
+         endColumn = Arrays.copyOf(endColumn, capacity);
+         errors = Arrays.copyOf(errors, capacity);
+      }
+      code[count] = cursor.code;
+      value[count] = cursor.value;
+      offset[count] = cursor.offset;
+      length[count] = cursor.length;
+      line[count] = cursor.line;
+      column[count] = cursor.column;
+      endLine[count] = endLineNumber;
+      endColumn[count] = endColumnNumber;
+      errors[count] = errorCount;
+      count++;
+   }
+
+   // Copies the first n tokens of chunk to position at, adding lineOffset to
+   // their lines and errorOffset to their error counts, and mapping the ids
+   // of identifiers through ids. The buffer must have room for them; copies
+   // to separate ranges may run in parallel. setSize() ends the copying.
+   public void copy(TokenBuffer chunk, int n, int at, int lineOffset, int errorOffset, int[] ids){
+      System.arraycopy(chunk.code, 0, code, at, n);
+      System.arraycopy(chunk.offset, 0, offset, at, n);
+      System.arraycopy(chunk.length, 0, length, at, n);
+      System.arraycopy(chunk.column, 0, column, at, n);
+      System.arraycopy(chunk.endColumn, 0, endColumn, at, n);
+      for (int i = 0; i < n; i++){
+         int j = at + i;
+         value[j] = chunk.code[i] == Token.ID ? ids[chunk.value[i]] : chunk.value[i];
+         line[j] = chunk.line[i] + lineOffset;
+         endLine[j] = chunk.endLine[i] + lineOffset;
+         errors[j] = chunk.errors[i] + errorOffset;
+      }
+   }
+
+   public void setSize(int n){
+      count = n;
+   }
+
+   public void setText(int i, int textOffset, int textLength){
+      offset[i] = textOffset;
+      length[i] = textLength;
+   }
+
+   public void setEnd(int i, int lineNumber, int columnNumber){
+      endLine[i] = lineNumber;
+      endColumn[i] = columnNumber;
+   }
+
+   public int size(){
+      return count;
+   }
+
+   // The lexical errors; errors(i) of them were found up to token i
+   public Diagnostics getDiagnostics(){
+      return diagnostics;
+   }
+
+   // The pool the ids of the identifier tokens come from
+   public IdentifierPool getIdentifiers(){
+      return identifiers;
+   }
+
+   public int code(int i){
+      return code[i];
+   }
+
+   public int value(int i){
+      return value[i];
+   }
+
+   public int offset(int i){
+      return offset[i];
+   }
+
+   public int length(int i){
+      return length[i];
+   }
+
+   public int line(int i){
+      return line[i];
+   }
+
+   public int column(int i){
+      return column[i];
+   }
+
+   public int endLine(int i){
+      return endLine[i];
+   }
+
+   public int endColumn(int i){
+      return endColumn[i];
+   }
+
+   public int errors(int i){
+      return errors[i];
+   }
+
+}
@@ -0,0 +1,37 @@
+// Reusable description of the current token, filled in by
+// Scanner.nextToken(TokenCursor) without allocating anything.
+public class TokenCursor extends Object{
+
+   public int code;
+   // the value of an integer literal, the char of a char literal
+   // or the id of an identifier
+   public int value;
+   // An identifier's text as written (not upper-cased) is
+   // source[offset .. offset + length - 1]. The slice is only valid
+   // until the scanner is asked for the next token.
+   public char[] source;
+   public int offset, length;
+   // position of the first char of the token, both counted from 1
+   public int line, column;
+
+   public TokenCursor(){
+      code = Token.ERROR;
+   }
+
+   // The upper-cased text of an identifier, as in Token.string
+   public String text(){
+      char[] text = new char[length];
+      for (int i = 0; i < length; i++)
+         text[i] = Character.toUpperCase(source[offset + i]);
+      return new String(text);
+   }
+
+   public String toString(){
+      Token token = new Token(code);
+      token.integer = value;
+      if (code == Token.ID)
+         token.string = text();
+      return token.toString();
+   }
+
+}
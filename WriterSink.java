@@ -0,0 +1,57 @@
+import java.io.*;
+
+// Buffered sink for the console or a file.
+// Nothing is guaranteed to appear until flush() is called.
+public class WriterSink extends Object implements OutputSink{
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private Writer writer;
+
+   public WriterSink(OutputStream stream){
+      writer = new BufferedWriter(new OutputStreamWriter(stream), BUFFER_SIZE);
+   }
+
+   // Sink writing to the named file, which is created or overwritten
+   public WriterSink(String fileName) throws IOException{
+      this(new FileOutputStream(fileName));
+   }
+
+   public void print(String s){
+      try{
+         writer.write(s);
+      }
+      catch(IOException e){
+         System.err.println("Error in output" + e.toString());
+      }
+   }
+
+   public void print(char[] text, int offset, int length){
+      try{
+         writer.write(text, offset, length);
+      }
+      catch(IOException e){
+         System.err.println("Error in output" + e.toString());
+      }
+   }
+
+   public void flush(){
+      try{
+         writer.flush();
+      }
+      catch(IOException e){
+         System.err.println("Error in output" + e.toString());
+      }
+   }
+
+   // Flushes and releases the underlying stream
+   public void close(){
+      try{
+         writer.close();
+      }
+      catch(IOException e){
+         System.err.println("Error in output" + e.toString());
+      }
+   }
+
+}
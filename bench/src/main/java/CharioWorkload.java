@@ -0,0 +1,22 @@
+import tinyada.bench.Workload;
+
+// Reads the source char by char through Chario.getChar()
+public class CharioWorkload implements Workload{
+
+   private Chario chario;
+
+   public void setUp(String source, int mode){
+      chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+   }
+
+   public long run(){
+      chario.reset();
+      long chars = 0;
+      while (chario.getChar() != Chario.EF)
+         chars++;
+      return chars;
+   }
+
+}
@@ -0,0 +1,20 @@
+import java.util.concurrent.ForkJoinPool;
+import tinyada.bench.Workload;
+
+// Scans the whole source into a TokenBuffer with ParallelLexer on the
+// common pool
+public class ParallelScanWorkload implements Workload{
+
+   private Chario chario;
+
+   public void setUp(String source, int mode){
+      chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+   }
+
+   public long run(){
+      return ParallelLexer.scan(chario, ForkJoinPool.commonPool()).size();
+   }
+
+}
@@ -0,0 +1,28 @@
+import java.util.concurrent.ForkJoinPool;
+import tinyada.bench.Workload;
+
+// Parses a TokenBuffer scanned once in setUp() with the nested procedure
+// bodies parsed ahead on the common pool. Each run starts with an empty
+// ParseCache, or it would replay the bodies of the run before.
+public class ParserParallelWorkload implements Workload{
+
+   private Parser parser;
+   private long size;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      parser = new Parser(chario, TokenBuffer.scan(chario, new Scanner(chario)), mode);
+      parser.setParallel(ForkJoinPool.commonPool());
+      size = source.length();
+   }
+
+   public long run(){
+      parser.setParseCache(new ParseCache());
+      parser.reset();
+      parser.parse();
+      return size;
+   }
+
+}
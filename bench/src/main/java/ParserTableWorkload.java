@@ -0,0 +1,26 @@
+import tinyada.bench.Workload;
+
+// Parses a TokenBuffer scanned once in setUp() with the table-driven
+// engine, which only checks syntax, whatever the mode
+public class ParserTableWorkload implements Workload{
+
+   private Parser parser;
+   private long size;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      TokenBuffer tokens = TokenBuffer.scan(chario, new Scanner(chario));
+      parser = new Parser(chario, tokens, Parser.NONE);
+      parser.setTableDriven(true);
+      size = source.length();
+   }
+
+   public long run(){
+      parser.reset();
+      parser.parse();
+      return size;
+   }
+
+}
@@ -0,0 +1,25 @@
+import tinyada.bench.Workload;
+
+// Parses a TokenBuffer scanned once in setUp(), so that only parsing is
+// measured
+public class ParserTokensWorkload implements Workload{
+
+   private Parser parser;
+   private long size;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      TokenBuffer tokens = TokenBuffer.scan(chario, new Scanner(chario));
+      parser = new Parser(chario, tokens, mode);
+      size = source.length();
+   }
+
+   public long run(){
+      parser.reset();
+      parser.parse();
+      return size;
+   }
+
+}
@@ -0,0 +1,26 @@
+import tinyada.bench.Workload;
+
+// Parses a TokenBuffer scanned once in setUp() and builds its syntax tree,
+// reusing the tree's arrays from run to run
+public class ParserTreeWorkload implements Workload{
+
+   private Parser parser;
+   private long size;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      TokenBuffer tokens = TokenBuffer.scan(chario, new Scanner(chario));
+      parser = new Parser(chario, tokens, mode);
+      parser.setSyntaxTree(new SyntaxTree(tokens.size()));
+      size = source.length();
+   }
+
+   public long run(){
+      parser.reset();
+      parser.parse();
+      return size;
+   }
+
+}
@@ -0,0 +1,23 @@
+import tinyada.bench.Workload;
+
+// Parses the source with Parser.parse() in the given mode
+public class ParserWorkload implements Workload{
+
+   private Parser parser;
+   private long size;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      parser = new Parser(chario, new Scanner(chario), mode);
+      size = source.length();
+   }
+
+   public long run(){
+      parser.reset();
+      parser.parse();
+      return size;
+   }
+
+}
@@ -0,0 +1,28 @@
+import tinyada.bench.Workload;
+
+// Splits the source into tokens with Scanner.nextToken(TokenCursor)
+public class ScannerCursorWorkload implements Workload{
+
+   private Scanner scanner;
+   private TokenCursor cursor;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      scanner = new Scanner(chario);
+      cursor = new TokenCursor();
+   }
+
+   public long run(){
+      scanner.reset();
+      long tokens = 1;
+      scanner.nextToken(cursor);
+      while (cursor.code != Token.EOF){
+         tokens++;
+         scanner.nextToken(cursor);
+      }
+      return tokens;
+   }
+
+}
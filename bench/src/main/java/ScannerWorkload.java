@@ -0,0 +1,23 @@
+import tinyada.bench.Workload;
+
+// Splits the source into tokens with Scanner.nextToken()
+public class ScannerWorkload implements Workload{
+
+   private Scanner scanner;
+
+   public void setUp(String source, int mode){
+      Chario chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      scanner = new Scanner(chario);
+   }
+
+   public long run(){
+      scanner.reset();
+      long tokens = 1;
+      while (scanner.nextToken().code != Token.EOF)
+         tokens++;
+      return tokens;
+   }
+
+}
@@ -0,0 +1,21 @@
+import tinyada.bench.Workload;
+
+// Scans the whole source into a TokenBuffer
+public class TokenBufferWorkload implements Workload{
+
+   private Chario chario;
+   private Scanner scanner;
+
+   public void setUp(String source, int mode){
+      chario = new Chario(source);
+      chario.setOutput(new NullSink());
+      chario.setListing(false);
+      scanner = new Scanner(chario);
+   }
+
+   public long run(){
+      scanner.reset();
+      return TokenBuffer.scan(chario, scanner).size();
+   }
+
+}
@@ -0,0 +1,43 @@
+package tinyada.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Chario.getChar() throughput, reported as chars per second
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CharioBenchmark{
+
+   @Param({"example_code/p1.ada", "example_code/p2.ada", "example_code/p3.ada",
+           "example_code/p4.ada", "example_code/p5.ada", "example_code/f1.ada",
+           "example_code/f2.ada", "example_code/f3.ada", "example_code/f4.ada",
+           "example_code/f5.ada", "synthetic-1KB", "synthetic-64KB",
+           "synthetic-1MB", "synthetic-100MB"})
+   public String source;
+
+   private Workload workload;
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters{
+      public long chars;
+   }
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception{
+      workload = Sources.workload("CharioWorkload");
+      workload.setUp(Sources.load(source), 0);
+   }
+
+   @Benchmark
+   public long getChar(Counters counters){
+      long chars = workload.run();
+      counters.chars += chars;
+      return chars;
+   }
+
+}
@@ -0,0 +1,28 @@
+package tinyada.bench;
+
+import java.lang.module.ModuleFinder;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks like the standard JMH main, with the same
+// command-line options, but always with the GC profiler so that the
+// allocation rate is reported next to the throughput. Where the JDK has
+// the Vector API, the forked JVMs get it too, so Chario uses it.
+public class Main{
+
+   private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+   public static void main(String[] args) throws Exception{
+      OptionsBuilder builder = new OptionsBuilder();
+      builder.parent(new CommandLineOptions(args))
+             .addProfiler(GCProfiler.class);
+      if (ModuleFinder.ofSystem().find(VECTOR_MODULE).isPresent())
+         builder.jvmArgsAppend("--add-modules=" + VECTOR_MODULE);
+      Options options = builder.build();
+      new Runner(options).run();
+   }
+
+}
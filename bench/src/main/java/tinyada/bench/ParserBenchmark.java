@@ -0,0 +1,58 @@
+package tinyada.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Parser.parse() throughput in each parsing mode, reported as
+// source bytes per second. With input "scanner" scanning is included;
+// with "tokens" the parser walks a TokenBuffer scanned beforehand, and
+// with "parallel" it also parses the nested procedure bodies ahead on all
+// cores.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark{
+
+   @Param({"example_code/p1.ada", "example_code/p2.ada", "example_code/p3.ada",
+           "example_code/p4.ada", "example_code/p5.ada", "example_code/f1.ada",
+           "example_code/f2.ada", "example_code/f3.ada", "example_code/f4.ada",
+           "example_code/f5.ada", "synthetic-1KB", "synthetic-64KB",
+           "synthetic-1MB", "synthetic-100MB", "commented-1MB"})
+   public String source;
+
+   // Parser.NONE, Parser.SCOPE and Parser.ROLE
+   @Param({"NONE", "SCOPE", "ROLE"})
+   public String mode;
+
+   @Param({"scanner", "tokens", "parallel"})
+   public String input;
+
+   private Workload workload;
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters{
+      public long bytes;
+   }
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception{
+      if (input.equals("parallel"))
+         workload = Sources.workload("ParserParallelWorkload");
+      else
+         workload = Sources.workload(input.equals("tokens") ? "ParserTokensWorkload" : "ParserWorkload");
+      int parserMode = mode.equals("NONE") ? 0 : mode.equals("SCOPE") ? 1 : 2;
+      workload.setUp(Sources.load(source), parserMode);
+   }
+
+   @Benchmark
+   public long parse(Counters counters){
+      long bytes = workload.run();
+      counters.bytes += bytes;
+      return bytes;
+   }
+
+}
@@ -0,0 +1,51 @@
+package tinyada.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The two parsing engines on the same pre-scanned TokenBuffer, syntax
+// only, reported as source bytes per second: the recursive-descent
+// methods, the same building a syntax tree, and the table-driven LL(1)
+// engine
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserEngineBenchmark{
+
+   @Param({"example_code/p1.ada", "example_code/f1.ada", "synthetic-64KB",
+           "synthetic-1MB", "synthetic-100MB"})
+   public String source;
+
+   @Param({"recursive", "tree", "table"})
+   public String engine;
+
+   private Workload workload;
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters{
+      public long bytes;
+   }
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception{
+      if (engine.equals("table"))
+         workload = Sources.workload("ParserTableWorkload");
+      else if (engine.equals("tree"))
+         workload = Sources.workload("ParserTreeWorkload");
+      else
+         workload = Sources.workload("ParserTokensWorkload");
+      workload.setUp(Sources.load(source), 0);
+   }
+
+   @Benchmark
+   public long parse(Counters counters){
+      long bytes = workload.run();
+      counters.bytes += bytes;
+      return bytes;
+   }
+
+}
@@ -0,0 +1,76 @@
+package tinyada.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Scanner.nextToken() throughput, reported as tokens per second,
+// for both the Token and the TokenCursor interface, and that of scanning
+// into a TokenBuffer on one thread and on all cores
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark{
+
+   @Param({"example_code/p1.ada", "example_code/p2.ada", "example_code/p3.ada",
+           "example_code/p4.ada", "example_code/p5.ada", "example_code/f1.ada",
+           "example_code/f2.ada", "example_code/f3.ada", "example_code/f4.ada",
+           "example_code/f5.ada", "synthetic-1KB", "synthetic-64KB",
+           "synthetic-1MB", "synthetic-100MB", "commented-1MB"})
+   public String source;
+
+   private Workload workload, cursorWorkload, bufferWorkload, parallelWorkload;
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters{
+      public long tokens;
+   }
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception{
+      workload = Sources.workload("ScannerWorkload");
+      cursorWorkload = Sources.workload("ScannerCursorWorkload");
+      bufferWorkload = Sources.workload("TokenBufferWorkload");
+      parallelWorkload = Sources.workload("ParallelScanWorkload");
+      String text = Sources.load(source);
+      workload.setUp(text, 0);
+      cursorWorkload.setUp(text, 0);
+      bufferWorkload.setUp(text, 0);
+      parallelWorkload.setUp(text, 0);
+   }
+
+   @Benchmark
+   public long nextToken(Counters counters){
+      long tokens = workload.run();
+      counters.tokens += tokens;
+      return tokens;
+   }
+
+   // The same through a reused TokenCursor
+   @Benchmark
+   public long nextTokenCursor(Counters counters){
+      long tokens = cursorWorkload.run();
+      counters.tokens += tokens;
+      return tokens;
+   }
+
+   // The whole source into a TokenBuffer
+   @Benchmark
+   public long scanBuffer(Counters counters){
+      long tokens = bufferWorkload.run();
+      counters.tokens += tokens;
+      return tokens;
+   }
+
+   // The same with ParallelLexer
+   @Benchmark
+   public long scanParallel(Counters counters){
+      long tokens = parallelWorkload.run();
+      counters.tokens += tokens;
+      return tokens;
+   }
+
+}
@@ -0,0 +1,96 @@
+package tinyada.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Source programs for the benchmarks. A name is either the path of a
+// file, relative to the directory the benchmarks are run from, or
+// "synthetic-<size>" with a size like 1KB, 64KB, 1MB or 100MB, or
+// "commented-<size>" for the same program deeply indented and commented.
+public class Sources{
+
+   private static final String SYNTHETIC = "synthetic-";
+   private static final String COMMENTED = "commented-";
+
+   public static String load(String name) throws IOException{
+      if (name.startsWith(SYNTHETIC))
+         return generate(parseSize(name.substring(SYNTHETIC.length())));
+      if (name.startsWith(COMMENTED))
+         return comment(generate(parseSize(name.substring(COMMENTED.length())) / 5));
+      return new String(Files.readAllBytes(Paths.get(name)), StandardCharsets.UTF_8);
+   }
+
+   public static Workload workload(String className) throws ReflectiveOperationException{
+      return (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+   }
+
+   private static int parseSize(String size){
+      int factor = 1;
+      if (size.endsWith("KB"))
+         factor = 1024;
+      else if (size.endsWith("MB"))
+         factor = 1024 * 1024;
+      if (factor > 1)
+         size = size.substring(0, size.length() - 2);
+      return Integer.parseInt(size) * factor;
+   }
+
+   // A correct TinyAda program of about the given number of chars: one
+   // outer procedure with as many nested procedures as needed, which use
+   // all kinds of declarations, statements and operators.
+   public static String generate(int size){
+      StringBuilder b = new StringBuilder(size + 1024);
+      b.append("procedure main is\n");
+      b.append("   type vector is array (range 1 .. 10) of INTEGER;\n");
+      b.append("   type color is (red, green, blue);\n");
+      b.append("   limit : constant := 16#FF# * 2;\n");
+      b.append("   total, count : INTEGER;\n");
+      b.append("   v : vector;\n");
+      int n = 0;
+      while (b.length() < size){
+         String name = "proc_" + n;
+         b.append("\n   procedure ").append(name).append(" (a, b : in out INTEGER; flag : in BOOLEAN) is\n");
+         b.append("      t : INTEGER;\n");
+         b.append("      c : CHAR;\n");
+         b.append("   begin\n");
+         b.append("      t := a + b * 2 - (limit mod 7) ** 2;\n");
+         b.append("      c := 'x';\n");
+         b.append("      if t > 10 and flag then\n");
+         b.append("         a := t mod 7;\n");
+         b.append("      elsif t = 3 or not flag then\n");
+         b.append("         b := -1;\n");
+         b.append("      else\n");
+         b.append("         null;\n");
+         b.append("      end if;\n");
+         b.append("      while a < b loop\n");
+         b.append("         a := a + 1;\n");
+         b.append("         v(a mod 10 + 1) := total / 2;\n");
+         b.append("         exit when a >= 100;\n");
+         b.append("      end loop;\n");
+         if (n > 0)
+            b.append("      proc_").append(n - 1).append(";\n");
+         b.append("   end ").append(name).append(";\n");
+         n++;
+      }
+      b.append("\nbegin\n");
+      b.append("   total := 0;\n");
+      b.append("   count := limit;\n");
+      b.append("end main;\n");
+      return b.toString();
+   }
+
+   // program with every line indented by another 16 blanks, followed by a
+   // comment and preceded by a comment line: about five times the size
+   public static String comment(String program){
+      StringBuilder b = new StringBuilder(program.length() * 5 + 1024);
+      String indent = "\t\t        \t    ";
+      for (String line : program.split("\n")){
+         b.append(indent).append("-- ").append("the next line is ").append(line.trim()).append('\n');
+         b.append(indent).append(line).append("      -- and some words about it\n");
+      }
+      return b.toString();
+   }
+
+}
@@ -0,0 +1,17 @@
+package tinyada.bench;
+
+// One of the compiler phases, run over a whole source program.
+// JMH does not accept benchmarks in the unnamed package, and classes in a
+// named package cannot refer to the compiler classes in the unnamed one.
+// The workloads therefore live in the unnamed package and implement this
+// interface; the benchmarks load them by name.
+public interface Workload{
+
+   // Prepares to run over source; mode is one of the Parser modes
+   public void setUp(String source, int mode);
+
+   // Runs once over the whole source and returns the number of
+   // units processed (chars, tokens or bytes)
+   public long run();
+
+}
@@ -0,0 +1,27 @@
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+// BlankFinder that tests a whole vector of chars at a time: 8, 16 or
+// 32 with 128-, 256- or 512-bit vectors. Chario loads it by name when the
+// jdk.incubator.vector module is available; compile it with
+//    javac --add-modules jdk.incubator.vector -d . vector/VectorBlankFinder.java
+public class VectorBlankFinder implements BlankFinder{
+
+   private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+   public int skipBlanks(char[] text, int from, int to){
+      int i = from;
+      int bound = from + SPECIES.loopBound(to - from);
+      for (; i < bound; i += SPECIES.length()){
+         ShortVector chars = ShortVector.fromCharArray(SPECIES, text, i);
+         VectorMask<Short> blanks = chars.eq((short) ' ').or(chars.eq((short) '\t'));
+         if (! blanks.allTrue())
+            return i + blanks.not().firstTrue();
+      }
+      while (i < to && (text[i] == ' ' || text[i] == '\t'))
+         i++;
+      return i;
+   }
+
+}